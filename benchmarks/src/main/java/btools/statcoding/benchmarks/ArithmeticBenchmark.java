@@ -0,0 +1,136 @@
+package btools.statcoding.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import btools.statcoding.BitInputStream;
+import btools.statcoding.BitOutputStream;
+import btools.statcoding.arithmetic.ACContextDecoder;
+import btools.statcoding.arithmetic.ACContextEncoder;
+import btools.statcoding.arithmetic.ArithmeticDecoder;
+import btools.statcoding.arithmetic.ArithmeticEncoder;
+import btools.statcoding.arithmetic.RlA2Decoder;
+import btools.statcoding.arithmetic.RlA2Encoder;
+
+/**
+ * Throughput of arithmetic coding, reported per symbol (ops/s) and as encoded
+ * bytes per second: plain 2-pass coding via ACContextEncoder on a skewed
+ * symbol distribution, and RlA2 coding on image-like rows with runs and
+ * neighbor correlation. Run with "-prof gc" to also get the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArithmeticBenchmark {
+
+    private static final int COUNT = 100000; // symbols per invocation
+    private static final int MAX_VALUE = 15; // RlA2 value range, like a 4-bit palette
+
+    private final int[] symbols = new int[COUNT];
+    private final long[] pixels = new long[COUNT];
+
+    private final BitOutputStream bos = new BitOutputStream(null, 1 << 20);
+    private final BitInputStream bis = new BitInputStream((InputStream) null);
+    private final ArithmeticEncoder aEncoder = new ArithmeticEncoder(bos);
+    private final ArithmeticDecoder aDecoder = new ArithmeticDecoder(bis);
+    private final ACContextEncoder contextEncoder = new ACContextEncoder();
+    private final RlA2Encoder rla2Encoder = new RlA2Encoder(MAX_VALUE, 4);
+
+    private byte[] encodedAC, encodedRlA2;
+
+    @Setup
+    public void setup() throws IOException {
+        Random rand = new Random(4711L);
+        for (int i = 0; i < COUNT; i++) {
+            symbols[i] = (int) Math.min(255, (long) (-8. * Math.log(1. - rand.nextDouble()))); // geometric-like
+        }
+        long value = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            if (rand.nextInt(8) == 0) { // runs with an average length of 8
+                value = rand.nextInt(4) == 0 ? rand.nextInt(MAX_VALUE + 1) : Math.max(0L,
+                        Math.min(MAX_VALUE, value + rand.nextInt(3) - 1));
+            }
+            pixels[i] = value;
+        }
+        encodeAC(null);
+        encodedAC = bos.toByteArray();
+        encodeRlA2(null);
+        encodedRlA2 = bos.toByteArray();
+    }
+
+    // counter is null when called from setup
+    private long countEncoded(ByteCounter counter) {
+        long bits = bos.getBitPosition();
+        if (counter != null) {
+            counter.bytes += bits >>> 3;
+        }
+        return bits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeAC(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        contextEncoder.reset();
+        for (int pass = 1; pass <= 2; pass++) {
+            aEncoder.reset(bos);
+            contextEncoder.init(aEncoder);
+            for (int i = 0; i < COUNT; i++) {
+                contextEncoder.write(symbols[i]);
+            }
+        }
+        aEncoder.finish();
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeAC(ByteCounter counter) throws IOException {
+        bis.reset(encodedAC);
+        aDecoder.reset(bis);
+        ACContextDecoder contextDecoder = new ACContextDecoder();
+        contextDecoder.init(aDecoder);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += contextDecoder.read();
+        }
+        counter.bytes += encodedAC.length;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeRlA2(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        rla2Encoder.reset();
+        for (int pass = 1; pass <= 2; pass++) {
+            rla2Encoder.init(bos);
+            for (int i = 0; i < COUNT; i++) {
+                rla2Encoder.encodeValue(pixels[i]);
+            }
+            rla2Encoder.finish();
+        }
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeRlA2(ByteCounter counter) throws IOException {
+        bis.reset(encodedRlA2);
+        RlA2Decoder decoder = new RlA2Decoder();
+        decoder.init(bis);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += decoder.decodeValue();
+        }
+        counter.bytes += encodedRlA2.length;
+        return sum;
+    }
+}
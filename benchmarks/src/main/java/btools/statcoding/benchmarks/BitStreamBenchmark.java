@@ -0,0 +1,200 @@
+package btools.statcoding.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import btools.statcoding.BitInputStream;
+import btools.statcoding.BitOutputStream;
+
+/**
+ * Throughput of the BitOutputStream/BitInputStream primitives on synthetic
+ * data, reported per value (ops/s) and, via {@link ByteCounter}, as encoded
+ * bytes per second. Run with "-prof gc" to also get the allocation rates,
+ * which should be close to zero as the streams are re-used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitStreamBenchmark {
+
+    private static final int COUNT = 10000; // values per invocation
+    private static final int ARRAY_SIZE = 100; // values per unique sorted array
+
+    private static final String[] words = { "DE", "AT", "1.0.0", "2021-07-01", "Comirnaty", "Spikevax",
+            "Vaxzevria", "Robert Koch-Institut", "Müller", "Straße", "ORG-100030215", "EU/1/20/1528" };
+
+    private final int[] bitCounts = new int[COUNT];
+    private final long[] bitValues = new long[COUNT];
+    private final long[] varValues = new long[COUNT];
+    private final long[] boundedValues = new long[COUNT];
+    private final String[] strings = new String[COUNT];
+    private final long[][] arrays = new long[COUNT / ARRAY_SIZE][];
+
+    private final BitOutputStream bos = new BitOutputStream(null, 1 << 20);
+    private final BitInputStream bis = new BitInputStream((InputStream) null);
+    private final long[] decoded = new long[ARRAY_SIZE];
+
+    private byte[] encodedBits, encodedVarBits, encodedBounded, encodedStrings, encodedArrays;
+
+    @Setup
+    public void setup() throws IOException {
+        Random rand = new Random(4711L);
+        for (int i = 0; i < COUNT; i++) {
+            bitCounts[i] = 1 + rand.nextInt(24);
+            bitValues[i] = rand.nextLong() & ((1L << bitCounts[i]) - 1L);
+            varValues[i] = (long) (-100. * Math.log(1. - rand.nextDouble())); // exponential, mean 100
+            boundedValues[i] = rand.nextInt(1001);
+            strings[i] = rand.nextInt(10) == 0 ? "id" + rand.nextInt(100000) : words[rand.nextInt(words.length)];
+        }
+        for (int i = 0; i < arrays.length; i++) {
+            long[] values = new long[ARRAY_SIZE];
+            long value = rand.nextInt(1000);
+            for (int j = 0; j < ARRAY_SIZE; j++) {
+                value += 1 + (long) (-20. * Math.log(1. - rand.nextDouble()));
+                values[j] = value;
+            }
+            arrays[i] = values;
+        }
+        encodeBits(null);
+        encodedBits = bos.toByteArray();
+        encodeVarBits(null);
+        encodedVarBits = bos.toByteArray();
+        encodeBounded(null);
+        encodedBounded = bos.toByteArray();
+        encodeStrings(null);
+        encodedStrings = bos.toByteArray();
+        encodeUniqueSortedArrays(null);
+        encodedArrays = bos.toByteArray();
+    }
+
+    // counter is null when called from setup
+    private long countEncoded(ByteCounter counter) {
+        long bits = bos.getBitPosition();
+        if (counter != null) {
+            counter.bytes += bits >>> 3;
+        }
+        return bits;
+    }
+
+    private void countDecoded(ByteCounter counter, byte[] ab) {
+        counter.bytes += ab.length;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeBits(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        for (int i = 0; i < COUNT; i++) {
+            bos.encodeBits(bitCounts[i], bitValues[i]);
+        }
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeBits(ByteCounter counter) throws IOException {
+        bis.reset(encodedBits);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += bis.decodeBits(bitCounts[i]);
+        }
+        countDecoded(counter, encodedBits);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeVarBits(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        for (int i = 0; i < COUNT; i++) {
+            bos.encodeUnsignedVarBits(varValues[i], 3);
+        }
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeVarBits(ByteCounter counter) throws IOException {
+        bis.reset(encodedVarBits);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += bis.decodeUnsignedVarBits(3);
+        }
+        countDecoded(counter, encodedVarBits);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeBounded(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        for (int i = 0; i < COUNT; i++) {
+            bos.encodeBounded(1000L, boundedValues[i]);
+        }
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeBounded(ByteCounter counter) throws IOException {
+        bis.reset(encodedBounded);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += bis.decodeBounded(1000L);
+        }
+        countDecoded(counter, encodedBounded);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeStrings(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        for (int i = 0; i < COUNT; i++) {
+            bos.encodeString(strings[i]);
+        }
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeStrings(ByteCounter counter) throws IOException {
+        bis.reset(encodedStrings);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += bis.decodeString().length();
+        }
+        countDecoded(counter, encodedStrings);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeUniqueSortedArrays(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        for (long[] values : arrays) {
+            bos.encodeUniqueSortedArray(values, 0, ARRAY_SIZE);
+        }
+        return countEncoded(counter);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeUniqueSortedArrays(ByteCounter counter) throws IOException {
+        bis.reset(encodedArrays);
+        long sum = 0L;
+        for (int i = 0; i < arrays.length; i++) {
+            bis.decodeUniqueSortedArray(decoded, 0, ARRAY_SIZE);
+            sum += decoded[ARRAY_SIZE - 1];
+        }
+        countDecoded(counter, encodedArrays);
+        return sum;
+    }
+}
@@ -0,0 +1,151 @@
+package btools.statcoding.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import btools.statcoding.BitInputStream;
+import btools.statcoding.BitOutputStream;
+import btools.statcoding.huffman.HuffmanDecoder;
+import btools.statcoding.huffman.HuffmanEncoder;
+import btools.statcoding.huffman.LongHuffmanDecoder;
+import btools.statcoding.huffman.LongHuffmanEncoder;
+
+/**
+ * Throughput of 2-pass Huffman encoding (including the tree) and of decoding
+ * with different lookup table sizes, on symbols following a Zipf-like
+ * distribution, reported per symbol (ops/s) and as encoded bytes per second.
+ * Run with "-prof gc" to also get the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HuffmanBenchmark {
+
+    private static final int COUNT = 100000; // symbols per invocation
+
+    @Param({ "0", "8", "12" })
+    public int lookupBits;
+
+    @Param({ "16", "1000" })
+    public int distinctSymbols;
+
+    private final Long[] symbols = new Long[COUNT];
+    private final long[] longSymbols = new long[COUNT];
+
+    private final BitOutputStream bos = new BitOutputStream(null, 1 << 20);
+    private final BitInputStream bis = new BitInputStream((InputStream) null);
+
+    private final HuffmanEncoder<Long> encoder = new HuffmanEncoder<Long>() {
+        @Override
+        protected void encodeObjectToStream(Long value) throws IOException {
+            bos.encodeUnsignedVarBits(value, 0);
+        }
+    };
+
+    private final LongHuffmanEncoder longEncoder = new LongHuffmanEncoder() {
+        @Override
+        protected void encodeValueToStream(long value) throws IOException {
+            bos.encodeUnsignedVarBits(value, 0);
+        }
+    };
+
+    private final HuffmanDecoder<Long> decoder = new HuffmanDecoder<Long>() {
+        @Override
+        protected Long decodeObjectFromStream() throws IOException {
+            return bis.decodeUnsignedVarBits(0);
+        }
+    };
+
+    private final LongHuffmanDecoder longDecoder = new LongHuffmanDecoder() {
+        @Override
+        protected long decodeValueFromStream() throws IOException {
+            return bis.decodeUnsignedVarBits(0);
+        }
+    };
+
+    private final long[] decoded = new long[COUNT];
+
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        // Zipf-like: P(k) ~ 1/(k+1), by inverting the approximate cumulative distribution
+        Random rand = new Random(4711L);
+        Long[] values = new Long[distinctSymbols];
+        for (int k = 0; k < distinctSymbols; k++) {
+            values[k] = (long) k * 7919L;
+        }
+        double logRange = Math.log(distinctSymbols + 1.);
+        for (int i = 0; i < COUNT; i++) {
+            int k = (int) Math.exp(rand.nextDouble() * logRange) - 1;
+            symbols[i] = values[Math.min(k, distinctSymbols - 1)];
+            longSymbols[i] = symbols[i];
+        }
+        encode(null);
+        encoded = bos.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encode(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        encoder.reset();
+        for (int pass = 1; pass <= 2; pass++) {
+            encoder.init(bos);
+            for (int i = 0; i < COUNT; i++) {
+                encoder.encodeObject(symbols[i]);
+            }
+        }
+        long bits = bos.getBitPosition();
+        if (counter != null) { // null when called from setup
+            counter.bytes += bits >>> 3;
+        }
+        return bits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long encodeLong(ByteCounter counter) throws IOException {
+        bos.reset(null);
+        longEncoder.reset();
+        for (int pass = 1; pass <= 2; pass++) {
+            longEncoder.init(bos);
+            longEncoder.encodeValues(longSymbols, 0, COUNT);
+        }
+        long bits = bos.getBitPosition();
+        counter.bytes += bits >>> 3;
+        return bits;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decode(ByteCounter counter) throws IOException {
+        bis.reset(encoded);
+        decoder.reset();
+        decoder.init(bis, lookupBits);
+        long sum = 0L;
+        for (int i = 0; i < COUNT; i++) {
+            sum += decoder.decodeObject();
+        }
+        counter.bytes += encoded.length;
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COUNT)
+    public long decodeLong(ByteCounter counter) throws IOException {
+        bis.reset(encoded);
+        longDecoder.reset();
+        longDecoder.init(bis, lookupBits);
+        longDecoder.decodeValues(decoded, 0, COUNT);
+        counter.bytes += encoded.length;
+        return decoded[COUNT - 1];
+    }
+}
@@ -0,0 +1,104 @@
+package btools.statcoding.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import btools.statcoding.BitInputStream;
+import btools.statcoding.BitOutputStream;
+
+/**
+ * Compares the iterative implementation of
+ * encodeUniqueSortedArray/decodeUniqueSortedArray to the recursive
+ * reference implementation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UniqueSortedArrayBenchmark {
+
+    @Param({ "1000000" })
+    public int size;
+
+    @Param({ "4", "64" })
+    public int averageDistance;
+
+    private long[] values;
+    private int nBits;
+    private byte[] encoded;
+    private long[] decoded;
+
+    @Setup
+    public void setup() throws IOException {
+        Random rand = new Random(4711L);
+        values = new long[size];
+        long value = 0L;
+        for (int i = 0; i < size; i++) {
+            value += 1 + rand.nextInt(2 * averageDistance - 1);
+            values[i] = value;
+        }
+        nBits = 63 - Long.numberOfLeadingZeros(value);
+        BitOutputStream bos = new BitOutputStream();
+        bos.encodeUniqueSortedArray(values, 0, size);
+        encoded = bos.toByteArray();
+        decoded = new long[size];
+    }
+
+    @Benchmark
+    public byte[] encodeIterative() throws IOException {
+        BitOutputStream bos = new BitOutputStream(null, encoded.length + 64);
+        bos.encodeUniqueSortedArray(values, 0, size);
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encodeRecursive() throws IOException {
+        RecursiveBitOutputStream bos = new RecursiveBitOutputStream(encoded.length + 64);
+        bos.encodeRecursive(values, nBits);
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public long[] decodeIterative() throws IOException {
+        BitInputStream bis = new BitInputStream(encoded);
+        bis.decodeUniqueSortedArray(decoded, 0, size);
+        return decoded;
+    }
+
+    @Benchmark
+    public long[] decodeRecursive() throws IOException {
+        RecursiveBitInputStream bis = new RecursiveBitInputStream(encoded);
+        bis.decodeRecursive(decoded);
+        return decoded;
+    }
+
+    // expose the protected, recursive reference implementations
+    private static final class RecursiveBitOutputStream extends BitOutputStream {
+
+        RecursiveBitOutputStream(int bufferSize) {
+            super(null, bufferSize);
+        }
+
+        void encodeRecursive(long[] values, int nBits) throws IOException {
+            encodeUnsignedVarBits(nBits, 8);
+            encodeUniqueSortedArray(values, 0, values.length, nBits, 0L);
+        }
+    }
+
+    private static final class RecursiveBitInputStream extends BitInputStream {
+
+        RecursiveBitInputStream(byte[] ab) throws IOException {
+            super(ab);
+        }
+
+        void decodeRecursive(long[] values) throws IOException {
+            int nBits = (int) decodeUnsignedVarBits(8);
+            decodeUniqueSortedArray(values, 0, values.length, nBits, 0L);
+        }
+    }
+}
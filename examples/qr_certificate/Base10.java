@@ -2,6 +2,7 @@ import java.io.*;
 
 import btools.statcoding.BitInputStream;
 import btools.statcoding.BitOutputStream;
+import btools.statcoding.BoundedCodec;
 
 /**
  * Probably not "Base10" in any defined sense, but encodes about 3,3 bits per
@@ -17,10 +18,12 @@ public class Base10 {
 
     public final static String chars = "0123456789";
 
+    private final static BoundedCodec codec = new BoundedCodec(chars.length() - 1);
+
     public static void encode(StringBuilder sb, byte[] ab) throws IOException {
         try (BitInputStream bis = new BitInputStream(ab)) {
             while (bis.hasMoreRealBits()) {
-                sb.append(chars.charAt((int) bis.decodeBounded(chars.length() - 1)));
+                sb.append(chars.charAt((int) codec.decode(bis)));
             }
         }
     }
@@ -34,7 +37,7 @@ public class Base10 {
                 if (idx < 0) {
                     throw new IllegalArgumentException("not a base10 char: " + c);
                 }
-                bos.encodeBounded(chars.length() - 1, idx);
+                codec.encode(bos, idx);
             }
         }
         return baos.toByteArray();
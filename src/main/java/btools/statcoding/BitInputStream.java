@@ -1,11 +1,22 @@
 package btools.statcoding;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 /**
  * BitInputStream is a replacement for java.io.DataInputStream extending it by
@@ -27,6 +38,29 @@ public class BitInputStream extends InputStream implements DataInput {
     protected InputStream in;
     private DataInputStream dis; // created lazily if needed
 
+    private ByteBuffer buf; // source buffer (null when reading from an InputStream)
+    private ByteBuffer bufSource; // the segment buf is a duplicate of
+    private int pos; // read position in buf
+    private int limit; // read limit in buf
+
+    // buffer sources are segmented, with buf being a duplicate of the current segment
+    private ByteBuffer[] segments;
+    private long segmentSize;
+    private int segment;
+    private long start; // start offset of this stream in the segmented source
+    private long end; // end offset of this stream in the segmented source
+
+    private long bytesRead; // bytes read from an InputStream
+
+    private char[] stringChars; // re-used by decodeString, allocated lazily
+    private byte[] stringBytes;
+
+    // work stack of decodeUniqueSortedArrayIteratively, allocated lazily
+    private int[] stackOffsets;
+    private int[] stackSizes;
+    private int[] stackBitPositions;
+    private long[] stackPrefixes;
+
     /**
      * Construct a BitInputStream for the underlying InputStream.
      *
@@ -39,15 +73,134 @@ public class BitInputStream extends InputStream implements DataInput {
     /**
      * Construct a BitInputStream for the given Byte-Array.
      *
-     * @param is the underlying stream to read from
+     * @param ab the byte array to read from
      */
     public BitInputStream(byte[] ab) throws IOException {
-        in = new ByteArrayInputStream(ab);
+        this(ByteBuffer.wrap(ab));
+    }
+
+    /**
+     * Construct a BitInputStream for the remaining bytes of the given ByteBuffer.
+     * <br>
+     * The data is decoded directly from the buffer, refilling the 64-bit buffer
+     * word with a single (big-endian) long load where possible. The position of
+     * the given buffer is not changed.
+     *
+     * @param bb the buffer to read from
+     */
+    public BitInputStream(ByteBuffer bb) {
+        this(new ByteBuffer[] { bb }, 1L << 31, bb.position(), bb.remaining());
+    }
+
+    /**
+     * Reset this BitInputStream to read from the given InputStream, so it can be
+     * re-used instead of creating a new instance.
+     *
+     * @param is the underlying stream to read from
+     */
+    public void reset(InputStream is) {
+        resetState();
+        in = is;
+        buf = null;
+        bufSource = null;
+        segments = null;
+    }
+
+    /**
+     * Reset this BitInputStream to read from the given Byte-Array, so it can be
+     * re-used instead of creating a new instance.
+     *
+     * @param ab the byte array to read from
+     */
+    public void reset(byte[] ab) {
+        reset(ab, 0, ab.length);
+    }
+
+    /**
+     * Reset this BitInputStream to read from a range of the given Byte-Array, so
+     * it can be re-used instead of creating a new instance. Re-using the same
+     * array (e.g. a record buffer) does not allocate.
+     *
+     * @param ab     the byte array to read from
+     * @param offset the position in the array where to start
+     * @param length the number of bytes to read
+     */
+    public void reset(byte[] ab, int offset, int length) {
+        if (offset < 0 || length < 0 || length > ab.length - offset) {
+            throw new IndexOutOfBoundsException("range out of array: " + offset + "/" + length);
+        }
+        resetState();
+        in = null;
+        if (segments == null || segments.length != 1 || !segments[0].hasArray() || segments[0].array() != ab
+                || segments[0].arrayOffset() != 0 || segments[0].limit() != ab.length) {
+            segments = new ByteBuffer[] { ByteBuffer.wrap(ab) };
+        }
+        segmentSize = 1L << 31;
+        start = offset;
+        end = offset + length;
+        setSourcePosition(offset);
+    }
+
+    private void resetState() {
+        b = 0L;
+        bits = 0;
+        eofBits = 0;
+        bytesRead = 0L;
+    }
+
+    /**
+     * Construct a BitInputStream for a range of a segmented source, that is
+     * a sequence of buffers of equal size (except the last one).
+     *
+     * @param segments    the buffers the source consists of
+     * @param segmentSize the size of each but the last buffer
+     * @param position    the offset in the source where to start
+     * @param length      the number of bytes to read
+     */
+    BitInputStream(ByteBuffer[] segments, long segmentSize, long position, long length) {
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        start = position;
+        end = position + length;
+        setSourcePosition(position);
+    }
+
+    private void setSourcePosition(long offset) {
+        segment = Math.min((int) (offset / segmentSize), segments.length - 1);
+        long segmentStart = segment * segmentSize;
+        if (bufSource != segments[segment]) {
+            bufSource = segments[segment];
+            buf = bufSource.duplicate(); // own position, big-endian
+        }
+        pos = (int) (offset - segmentStart);
+        limit = (int) Math.min(segments[segment].limit(), end - segmentStart);
+    }
+
+    private boolean nextSegment() {
+        long nextStart = (segment + 1) * segmentSize;
+        if (nextStart >= end) {
+            return false;
+        }
+        setSourcePosition(nextStart);
+        return true;
     }
 
     private void fillBuffer() throws IOException {
+        if (bits <= 56) {
+            if (limit - pos >= 8) { // fast path: fill as many bytes as fit into the buffer word
+                int n = (64 - bits) >>> 3;
+                b |= (buf.getLong(pos) & (-1L << (64 - (n << 3)))) >>> bits;
+                pos += n;
+                bits += n << 3;
+            } else {
+                fillBufferBytewise();
+            }
+        }
+    }
+
+    private void fillBufferBytewise() throws IOException {
         while (bits <= 56) {
-            int nextByte = in.read();
+            int nextByte = readSourceByte();
 
             if (nextByte != -1) {
                 b |= (nextByte & 0xffL) << (56-bits);
@@ -61,6 +214,78 @@ public class BitInputStream extends InputStream implements DataInput {
         }
     }
 
+    private int readSourceByte() throws IOException {
+        if (pos < limit || (buf != null && nextSegment())) {
+            return buf.get(pos++) & 0xff;
+        }
+        if (buf != null) {
+            return -1;
+        }
+        int nextByte = in.read();
+        if (nextByte != -1) {
+            bytesRead++;
+        }
+        return nextByte;
+    }
+
+    private int readSource(byte[] ab, int off, int len) throws IOException {
+        if (buf == null) {
+            int n = in.read(ab, off, len);
+            if (n > 0) {
+                bytesRead += n;
+            }
+            return n;
+        }
+        if (pos == limit && (len == 0 || !nextSegment())) {
+            return len == 0 ? 0 : -1;
+        }
+        int n = Math.min(len, limit - pos);
+        buf.position(pos);
+        buf.get(ab, off, n);
+        pos += n;
+        return n;
+    }
+
+    private int sourceAvailable() throws IOException {
+        if (buf == null) {
+            return in.available();
+        }
+        long remaining = end - segment * segmentSize - pos;
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create an independent stream over the same source, with the same bit
+     * positions as this one, but its own read position.
+     *
+     * @return the new stream, positioned at bit 0
+     * @throws IOException if the source is not seekable
+     */
+    BitInputStream createView() throws IOException {
+        if (buf == null) {
+            throw new IOException("createView needs a seekable source");
+        }
+        return new BitInputStream(segments, segmentSize, start, end - start);
+    }
+
+    // check whether this stream reads from a seekable source
+    final boolean isSeekable() {
+        return buf != null;
+    }
+
+    // re-initialize this stream as a view on the next (byte-aligned) section of the
+    // given seekable parent, and position the parent behind that section
+    final void resetToSection(BitInputStream parent, long length) throws IOException {
+        long offset = parent.skipSectionData(length);
+        resetState();
+        in = null;
+        segments = parent.segments;
+        segmentSize = parent.segmentSize;
+        start = offset;
+        end = offset + length;
+        setSourcePosition(offset);
+    }
+
     /**
      * A BitInputStream spits out up to 256 dummy-0-bits after EOF. This method
      * tells if we are still reading real data bits.
@@ -88,6 +313,116 @@ public class BitInputStream extends InputStream implements DataInput {
         return readLong();
     }
 
+    /**
+     * Get the number of bits read so far.
+     * <br>
+     * This is the twin of {@link BitOutputStream#getBitPosition()}, so it
+     * includes padding bits skipped during re-alignment.
+     *
+     * @return the number of bits.
+     */
+    public long getBitPosition() {
+        long bytesConsumed = buf == null ? bytesRead : segment * segmentSize + pos - start;
+        return (bytesConsumed << 3) + eofBits - bits;
+    }
+
+    /**
+     * Continue decoding at the given bit position, as reported by
+     * {@link #getBitPosition()} or {@link BitOutputStream#getBitPosition()}.
+     * <br>
+     * This needs a seekable source, which is a BitInputStream constructed from a
+     * byte-array, a ByteBuffer or a mapped file ({@link MappedBitInputStream}).
+     *
+     * @param bitPosition the bit position to seek to
+     * @throws IOException if the source is not seekable
+     */
+    public void seekToBit(long bitPosition) throws IOException {
+        if (buf == null) {
+            throw new IOException("seekToBit needs a seekable source");
+        }
+        if (bitPosition < 0L || bitPosition > (end - start) << 3) {
+            throw new IllegalArgumentException("bit position out of range: " + bitPosition);
+        }
+        setSourcePosition(start + (bitPosition >>> 3));
+        b = 0L;
+        bits = 0;
+        eofBits = 0;
+        decodeBits((int) (bitPosition & 7L));
+    }
+
+    /**
+     * Decode the header of a data section written by
+     * {@link PrefixedBitOutputStream} without consuming it, so the caller can
+     * decide whether to decode the section (see {@link PrefixedBitInputStream})
+     * or to skip it (see {@link #skipSection()}).
+     * <br>
+     * This needs a seekable source, which is a BitInputStream constructed from a
+     * byte-array, a ByteBuffer or a mapped file ({@link MappedBitInputStream}).
+     *
+     * @return the section header
+     * @throws IOException if the source is not seekable
+     */
+    public SectionHeader peekSectionHeader() throws IOException {
+        if (buf == null) {
+            throw new IOException("peekSectionHeader needs a seekable source");
+        }
+        long bitPosition = getBitPosition();
+        SectionHeader header = decodeSectionHeader();
+        seekToBit(bitPosition);
+        return header;
+    }
+
+    /**
+     * Skip a data section written by {@link PrefixedBitOutputStream}, without
+     * decoding it. For a seekable source this is a single seek, otherwise the
+     * section is skipped on the underlying InputStream.
+     *
+     * @return the header of the skipped section
+     */
+    public SectionHeader skipSection() throws IOException {
+        SectionHeader header = decodeSectionHeader();
+        skipSectionData(header.getSize());
+        return header;
+    }
+
+    final SectionHeader decodeSectionHeader() throws IOException {
+        long majorVersion = decodeUnsignedVarBits(0) + 1;
+        long minorVersion = decodeUnsignedVarBits(0) + 1;
+        long size = decodeUnsignedVarBits(5);
+        return new SectionHeader(majorVersion, minorVersion, size);
+    }
+
+    // re-align and skip the given number of bytes, returning the source
+    // offset of the skipped data (or -1 if the source is not seekable)
+    private long skipSectionData(long length) throws IOException {
+        reAlign();
+        if (buf == null) {
+            while (length > 0L && bits > 0) {
+                read();
+                length--;
+            }
+            while (length > 0L) {
+                long n = in.skip(length);
+                if (n <= 0L) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+                    n = 1L;
+                }
+                bytesRead += n;
+                length -= n;
+            }
+            return -1L;
+        }
+        long bitPosition = getBitPosition();
+        long offset = start + (bitPosition >>> 3);
+        if (length < 0L || length > end - offset) {
+            throw new EOFException("section exceeds source: " + length);
+        }
+        seekToBit(bitPosition + (length << 3));
+        return offset;
+    }
+
     // ****************************************
     // **** METHODS of java.io.InputStream ****
     // ****************************************
@@ -104,7 +439,7 @@ public class BitInputStream extends InputStream implements DataInput {
                 return (int) value;
             }
         }
-        return in.read();
+        return readSourceByte();
     }
 
     private void reAlign() throws IOException {
@@ -133,28 +468,30 @@ public class BitInputStream extends InputStream implements DataInput {
             if (len == 0 || available() == 0) {
                 return lenFromBuffer;
             }
-            int result = in.read(b, off, len);
+            int result = readSource(b, off, len);
             return result == -1 ? lenFromBuffer : lenFromBuffer + result;
         }
-        return in.read(b, off, len);
+        return readSource(b, off, len);
     }
 
     @Override
     public int available() throws IOException {
-        return (bits >> 3) + in.available();
+        return (bits >> 3) + sourceAvailable();
     }
 
     @Override
     public void close() throws IOException {
-        in.close();
+        if (in != null) {
+            in.close();
+        }
     }
 
     // **************************************
     // **** METHODS of java.io.DataInput ****
     // **************************************
 
-    // delegate Methods of DataInput to an instance of
-    // DataInputStream created lazily
+    // the primitives are read directly from the buffer, readLine and skipBytes
+    // are delegated to a DataInputStream created lazily
     private DataInputStream getDis() {
         if (dis == null) {
             dis = new DataInputStream(this);
@@ -162,14 +499,63 @@ public class BitInputStream extends InputStream implements DataInput {
         return dis;
     }
 
+    // re-align once and read nBytes bytes as a big-endian value. Reading ahead
+    // is done only for buffer sources, an InputStream is read byte by byte so
+    // it is not blocked waiting for data beyond the value.
+    private long readAligned(int nBytes) throws IOException {
+        reAlign();
+        int nBits = nBytes << 3;
+        if (buf != null) {
+            if (bits == 0 && limit - pos >= 8) { // fast path: straight from the source buffer
+                long v = buf.getLong(pos) >>> (64 - nBits);
+                pos += nBytes;
+                return v;
+            }
+            fillBuffer();
+        }
+        if (bits - eofBits >= nBits) { // from the buffer word
+            long v = nBits == 64 ? b : b >>> (64 - nBits);
+            b = nBits == 64 ? 0L : b << nBits;
+            bits -= nBits;
+            return v;
+        }
+        long v = 0L;
+        for (int i = 0; i < nBytes; i++) {
+            int nextByte;
+            if (bits > 0) {
+                if (bits <= eofBits) {
+                    throw new EOFException();
+                }
+                nextByte = (int) (b >>> 56);
+                b <<= 8;
+                bits -= 8;
+            } else {
+                nextByte = readSourceByte();
+                if (nextByte < 0) {
+                    throw new EOFException();
+                }
+            }
+            v = (v << 8) | nextByte;
+        }
+        return v;
+    }
+
     @Override
     public void readFully(byte[] b) throws IOException {
-        getDis().readFully(b);
+        readFully(b, 0, b.length);
     }
 
     @Override
     public void readFully(byte[] b, int off, int len) throws IOException {
-        getDis().readFully(b, off, len);
+        reAlign(); // also for len=0, like the encoder does on write
+        while (len > 0) {
+            int n = read(b, off, len);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            off += n;
+            len -= n;
+        }
     }
 
     @Override
@@ -179,52 +565,52 @@ public class BitInputStream extends InputStream implements DataInput {
 
     @Override
     public boolean readBoolean() throws IOException {
-        return getDis().readBoolean();
+        return readAligned(1) != 0L;
     }
 
     @Override
     public byte readByte() throws IOException {
-        return getDis().readByte();
+        return (byte) readAligned(1);
     }
 
     @Override
     public int readUnsignedByte() throws IOException {
-        return getDis().readUnsignedByte();
+        return (int) readAligned(1);
     }
 
     @Override
     public short readShort() throws IOException {
-        return getDis().readShort();
+        return (short) readAligned(2);
     }
 
     @Override
     public int readUnsignedShort() throws IOException {
-        return getDis().readUnsignedShort();
+        return (int) readAligned(2);
     }
 
     @Override
     public char readChar() throws IOException {
-        return getDis().readChar();
+        return (char) readAligned(2);
     }
 
     @Override
     public int readInt() throws IOException {
-        return getDis().readInt();
+        return (int) readAligned(4);
     }
 
     @Override
     public long readLong() throws IOException {
-        return getDis().readLong();
+        return readAligned(8);
     }
 
     @Override
     public float readFloat() throws IOException {
-        return getDis().readFloat();
+        return Float.intBitsToFloat(readInt());
     }
 
     @Override
     public double readDouble() throws IOException {
-        return getDis().readDouble();
+        return Double.longBitsToDouble(readLong());
     }
 
     @Override
@@ -234,7 +620,7 @@ public class BitInputStream extends InputStream implements DataInput {
 
     @Override
     public String readUTF() throws IOException {
-        return getDis().readUTF();
+        return DataInputStream.readUTF(this);
     }
 
     // ***********************************************
@@ -311,8 +697,8 @@ public class BitInputStream extends InputStream implements DataInput {
             return 0L;
         }
         fillBuffer();
-        if (count > bits) {
-            return (decodeBits(count-32) << 32) | decodeBits( 32 ); // buffer too small, split
+        if (count > bits || count == 64) { // buffer too small (or shift would overflow), split
+            return (decodeBits(count-32) << 32) | decodeBits( 32 );
         }
         long value = b >>> (64 - count);
         b <<= count;
@@ -376,9 +762,32 @@ public class BitInputStream extends InputStream implements DataInput {
      */
     public final long decodeUnsignedVarBits(int noisyBits) throws IOException {
         checkNoisyRange( noisyBits );
+        return readUnsignedVarBits(noisyBits, VarBitsTable.getEntries(noisyBits, false));
+    }
+
+    // decodeUnsignedVarBits without parameter checks, using the given lookup table (may be null)
+    final long readUnsignedVarBits(int noisyBits, int[] entries) throws IOException {
+        int entry = decodeShortCode(entries);
+        if (entry != 0) {
+            return entry >> 8;
+        }
         return (decodeUnsignedVarBits() << noisyBits) | decodeBits(noisyBits);
     }
 
+    // try to decode a short var-bits code with a single table lookup,
+    // returning the table entry (or 0 if the code is too long)
+    private int decodeShortCode(int[] entries) throws IOException {
+        if (entries == null) {
+            return 0;
+        }
+        fillBuffer();
+        int entry = entries[(int) (b >>> (64 - VarBitsTable.LOOKUP_BITS))];
+        int count = entry & 0xff;
+        b <<= count;
+        bits -= count;
+        return entry;
+    }
+
     private final long decodeUnsignedVarBits() throws IOException {
         int nBits = decodeLengthPrefix();
         long range = nBits > 0 ? 0xffffffffffffffffL >>> (64 - nBits): 0L;
@@ -398,6 +807,15 @@ public class BitInputStream extends InputStream implements DataInput {
      */
     public final long decodeSignedVarBits(int noisyBits) throws IOException {
         checkNoisyRange( noisyBits );
+        return readSignedVarBits(noisyBits, VarBitsTable.getEntries(noisyBits, true));
+    }
+
+    // decodeSignedVarBits without parameter checks, using the given lookup table (may be null)
+    final long readSignedVarBits(int noisyBits, int[] entries) throws IOException {
+        int entry = decodeShortCode(entries);
+        if (entry != 0) {
+            return entry >> 8;
+        }
         boolean isCentral = decodeBit();
         long lv = isCentral ? 0L : decodeUnsignedVarBits() + 1L;
         long noisyWord = decodeBits( noisyBits );
@@ -414,6 +832,209 @@ public class BitInputStream extends InputStream implements DataInput {
         }
     }
 
+    private static void checkArrayRange(int length, int offset, int size) {
+        if (offset < 0 || size < 0 || offset > length - size) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " size=" + size + " length=" + length);
+        }
+    }
+
+    /**
+     * Bulk version of {@link #decodeUnsignedVarBits(int)}, decoding {@code size}
+     * values into the given array starting at {@code offset}.
+     * <br><br>
+     * Parameters are checked once, and the buffer word is kept in local variables
+     * while decoding, refilling only when needed.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param values    the array to decode into
+     * @param offset    position in this array where to start
+     * @param size      number of values to decode
+     *
+     * @see BitOutputStream#encodeUnsignedVarBits(long[], int, int, int)
+     */
+    public final void decodeUnsignedVarBits(int noisyBits, long[] values, int offset, int size) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        decodeUnsignedVarBits(noisyBits, values, null, offset, size);
+    }
+
+    /**
+     * Same as {@link #decodeUnsignedVarBits(int,long[],int,int)}, but for an
+     * int-array.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param values    the array to decode into
+     * @param offset    position in this array where to start
+     * @param size      number of values to decode
+     *
+     * @see BitOutputStream#encodeUnsignedVarBits(int[], int, int, int)
+     */
+    public final void decodeUnsignedVarBits(int noisyBits, int[] values, int offset, int size) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        decodeUnsignedVarBits(noisyBits, null, values, offset, size);
+    }
+
+    private void decodeUnsignedVarBits(int noisyBits, long[] lValues, int[] iValues, int offset, int size)
+            throws IOException {
+        checkNoisyRange( noisyBits );
+        long word = b;
+        int count = bits;
+        int end = offset + size;
+        for (int i = offset; i < end; i++) {
+            if (count <= 56) {
+                b = word;
+                bits = count;
+                fillBuffer();
+                word = b;
+                count = bits;
+            }
+            long value;
+            int n = Long.numberOfLeadingZeros(word);
+            int nBits = 2 * n + 1 + noisyBits;
+            if (nBits <= count) {
+                // the code is (v+1) with n leading zeros, v=value>>>noisyBits, followed by the noisy bits
+                value = ((word << n) >>> (64 - (n + 1 + noisyBits))) - (1L << noisyBits);
+                word = word << (nBits - 1) << 1;
+                count -= nBits;
+            } else { // long code, take the slow path
+                b = word;
+                bits = count;
+                value = decodeUnsignedVarBits(noisyBits);
+                word = b;
+                count = bits;
+            }
+            if (lValues != null) {
+                lValues[i] = value;
+            } else {
+                iValues[i] = (int) value;
+            }
+        }
+        b = word;
+        bits = count;
+    }
+
+    /**
+     * Bulk version of {@link #decodeSignedVarBits(int)}, decoding {@code size}
+     * values into the given array starting at {@code offset}.
+     * <br><br>
+     * Parameters are checked once, and the buffer word is kept in local variables
+     * while decoding, refilling only when needed.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param values    the array to decode into
+     * @param offset    position in this array where to start
+     * @param size      number of values to decode
+     *
+     * @see BitOutputStream#encodeSignedVarBits(long[], int, int, int)
+     */
+    public final void decodeSignedVarBits(int noisyBits, long[] values, int offset, int size) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        decodeSignedVarBits(noisyBits, values, null, offset, size, false);
+    }
+
+    /**
+     * Same as {@link #decodeSignedVarBits(int,long[],int,int)}, but for an
+     * int-array.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param values    the array to decode into
+     * @param offset    position in this array where to start
+     * @param size      number of values to decode
+     *
+     * @see BitOutputStream#encodeSignedVarBits(int[], int, int, int)
+     */
+    public final void decodeSignedVarBits(int noisyBits, int[] values, int offset, int size) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        decodeSignedVarBits(noisyBits, null, values, offset, size, false);
+    }
+
+    /**
+     * Same as {@link #decodeSignedVarBits(int,long[],int,int)}, but decoding
+     * differences of subsequent values and accumulating them. The first value is
+     * decoded as the difference to 0.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param values    the array to decode into
+     * @param offset    position in this array where to start
+     * @param size      number of values to decode
+     *
+     * @see BitOutputStream#encodeSignedVarBitsDeltas(long[], int, int, int)
+     */
+    public final void decodeSignedVarBitsDeltas(int noisyBits, long[] values, int offset, int size)
+            throws IOException {
+        checkArrayRange(values.length, offset, size);
+        decodeSignedVarBits(noisyBits, values, null, offset, size, true);
+    }
+
+    /**
+     * Same as {@link #decodeSignedVarBitsDeltas(int,long[],int,int)}, but for an
+     * int-array.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param values    the array to decode into
+     * @param offset    position in this array where to start
+     * @param size      number of values to decode
+     *
+     * @see BitOutputStream#encodeSignedVarBitsDeltas(int[], int, int, int)
+     */
+    public final void decodeSignedVarBitsDeltas(int noisyBits, int[] values, int offset, int size)
+            throws IOException {
+        checkArrayRange(values.length, offset, size);
+        decodeSignedVarBits(noisyBits, null, values, offset, size, true);
+    }
+
+    private void decodeSignedVarBits(int noisyBits, long[] lValues, int[] iValues, int offset, int size,
+            boolean deltas) throws IOException {
+        checkNoisyRange( noisyBits );
+        long noisyMask = (1L << noisyBits) - 1L;
+        long half = noisyBits == 0 ? 0L : 1L << (noisyBits - 1);
+        long lastValue = 0L;
+        long word = b;
+        int count = bits;
+        int end = offset + size;
+        for (int i = offset; i < end; i++) {
+            if (count <= 56) {
+                b = word;
+                bits = count;
+                fillBuffer();
+                word = b;
+                count = bits;
+            }
+            long value;
+            int n = Long.numberOfLeadingZeros(word << 1);
+            int nBits = word < 0L ? noisyBits + 1 : 2 * n + noisyBits + 3;
+            if (nBits > count) { // long code, take the slow path
+                b = word;
+                bits = count;
+                value = decodeSignedVarBits(noisyBits);
+                word = b;
+                count = bits;
+            } else {
+                if (word < 0L) { // central: 1-bit + noisy bits
+                    value = ((word << 1) >>> 1 >>> (63 - noisyBits)) - half;
+                } else { // 0-bit + n zeros + 1-bit + n-bit suffix + noisy bits + sign bit
+                    long w = (word << (n + 2)) >>> (63 - (n + noisyBits));
+                    long lv = (1L << n) + (w >>> (noisyBits + 1));
+                    if ((w & 1L) != 0L) {
+                        lv = -lv;
+                    }
+                    value = ((lv << noisyBits) | ((w >>> 1) & noisyMask)) - half;
+                }
+                word = word << (nBits - 1) << 1;
+                count -= nBits;
+            }
+            if (deltas) {
+                value = lastValue += value;
+            }
+            if (lValues != null) {
+                lValues[i] = value;
+            } else {
+                iValues[i] = (int) value;
+            }
+        }
+        b = word;
+        bits = count;
+    }
+
     /**
      * Decoding twin to {@link BitOutputStream#encodeBounded( long, long )}<br>
      * <br>
@@ -424,11 +1045,7 @@ public class BitInputStream extends InputStream implements DataInput {
      * @return the decoded value
      */
     public final long decodeBounded(long max) throws IOException {
-        long m = max;
-        int n = 0;
-        while ((m >>>= 1) != 0L) {
-            n++;
-        }
+        int n = 63 - Long.numberOfLeadingZeros(max | 1L); // floor(log2(max))
         long value = decodeBits( n );
 
         // read the highest bit only if a 1-bit would yield a value <= max
@@ -447,39 +1064,146 @@ public class BitInputStream extends InputStream implements DataInput {
      * @return the decoded String (may be null)
      */
     public final String decodeString() throws IOException {
+        int n = decodeStringChars();
+        return n < 0 ? null : new String(stringChars, 0, n);
+    }
+
+    /**
+     * Same as {@link #decodeString()}, but returning canonical instances from
+     * the given cache, so that repeated strings do not allocate.
+     *
+     * @param cache the cache to use
+     * @return the decoded String (may be null)
+     */
+    public final String decodeString(StringCache cache) throws IOException {
+        int n = decodeStringChars();
+        return n < 0 ? null : cache.get(stringChars, n);
+    }
+
+    /**
+     * Same as {@link #decodeString()}, but appending the characters to the given
+     * StringBuilder instead of creating a String.
+     *
+     * @param sb the StringBuilder to append to
+     * @return false if the decoded String is null (nothing appended)
+     */
+    public final boolean decodeString(StringBuilder sb) throws IOException {
+        int n = decodeStringChars();
+        if (n < 0) {
+            return false;
+        }
+        sb.append(stringChars, 0, n);
+        return true;
+    }
+
+    /**
+     * Same as {@link #decodeString()}, but putting the characters into the given
+     * CharBuffer instead of creating a String.
+     *
+     * @param cb the CharBuffer to put the characters into
+     * @return false if the decoded String is null (nothing put)
+     * @throws java.nio.BufferOverflowException if the buffer has not enough room
+     */
+    public final boolean decodeString(CharBuffer cb) throws IOException {
+        int n = decodeStringChars();
+        if (n < 0) {
+            return false;
+        }
+        cb.put(stringChars, 0, n);
+        return true;
+    }
+
+    // decode a String into stringChars, returning the length or -1 for null
+    private int decodeStringChars() throws IOException {
 
         long classifier = decodeUnsignedVarBits( 1 );
         if (classifier == 0L) {
-            return null;
+            return -1;
         }
         if (classifier == 1L) {
-            return "";
+            return 0;
         }
         int type = (int)(classifier-2L);
         int n = 1 + (int)decodeUnsignedVarBits( 3 );
+        if (stringChars == null || stringChars.length < n) {
+            stringChars = new char[Math.max(n, stringChars == null ? 32 : 2 * stringChars.length)];
+        }
+        char[] ac = stringChars;
         if ( type < 3 ) {
             // encode a limited charset ( numeric, numeric+, ascii )
             long min = charRangeLow[type];
-            long range = charRangeHigh[type]-min-1;
-            char[] ac = new char[n];
+            BoundedCodec codec = charCodecs[type];
             for( int j=0; j<n; j++ ) {
-                long c = decodeBounded( range ) + min;
+                long c = codec.decode( this ) + min;
                 ac[j] = (char)c;
             }
-            return new String( ac );
+            return n;
         }
         if ( type == 3 ) {
-        	  // decode UTF-8
-            byte[] ab = new byte[n];
-            readFully(ab);
-            return new String(ab, StandardCharsets.UTF_8);
+            // decode UTF-8 (a UTF-8 sequence never has more chars than bytes)
+            if (stringBytes == null || stringBytes.length < n) {
+                stringBytes = new byte[Math.max(n, stringBytes == null ? 32 : 2 * stringBytes.length)];
+            }
+            readFully(stringBytes, 0, n);
+            int len = decodeUtf8(stringBytes, n, ac);
+            if (len < 0) { // malformed, let String do the replacements
+                String s = new String(stringBytes, 0, n, StandardCharsets.UTF_8);
+                len = s.length();
+                s.getChars(0, len, ac, 0);
+            }
+            return len;
         }
         throw new IllegalArgumentException( "unknown string classifier: " + classifier );
     }
 
+    // decode well-formed UTF-8, returning the number of chars or -1 if malformed
+    private static int decodeUtf8(byte[] ab, int n, char[] ac) {
+        int k = 0;
+        for (int i = 0; i < n;) {
+            int b0 = ab[i++];
+            if (b0 >= 0) {
+                ac[k++] = (char) b0;
+            } else if ((b0 & 0xe0) == 0xc0 && i < n) {
+                int b1 = ab[i++];
+                int c = (b0 & 0x1f) << 6 | (b1 & 0x3f);
+                if ((b1 & 0xc0) != 0x80 || c < 0x80) {
+                    return -1;
+                }
+                ac[k++] = (char) c;
+            } else if ((b0 & 0xf0) == 0xe0 && i + 1 < n) {
+                int b1 = ab[i++];
+                int b2 = ab[i++];
+                int c = (b0 & 0x0f) << 12 | (b1 & 0x3f) << 6 | (b2 & 0x3f);
+                if ((b1 & 0xc0) != 0x80 || (b2 & 0xc0) != 0x80 || c < 0x800 || Character.isSurrogate((char) c)) {
+                    return -1;
+                }
+                ac[k++] = (char) c;
+            } else if ((b0 & 0xf8) == 0xf0 && i + 2 < n) {
+                int b1 = ab[i++];
+                int b2 = ab[i++];
+                int b3 = ab[i++];
+                int c = (b0 & 0x07) << 18 | (b1 & 0x3f) << 12 | (b2 & 0x3f) << 6 | (b3 & 0x3f);
+                if ((b1 & 0xc0) != 0x80 || (b2 & 0xc0) != 0x80 || (b3 & 0xc0) != 0x80 || c < 0x10000 || c > 0x10ffff) {
+                    return -1;
+                }
+                ac[k++] = Character.highSurrogate(c);
+                ac[k++] = Character.lowSurrogate(c);
+            } else {
+                return -1;
+            }
+        }
+        return k;
+    }
+
     // known character ranges: numeric, numeric+, ascii
     private static int[] charRangeLow = { 0x30, 0x2c, 0x20 };
     private static int[] charRangeHigh = { 0x3a, 0x3a, 0x80 };
+    private static final BoundedCodec[] charCodecs = new BoundedCodec[3];
+    static {
+        for (int type = 0; type < 3; type++) {
+            charCodecs[type] = new BoundedCodec(charRangeHigh[type] - charRangeLow[type] - 1);
+        }
+    }
 
     /**
      * Decoding twin to {@link BitOutputStream#encodeUniqueSortedArray( long[] )}
@@ -493,6 +1217,101 @@ public class BitInputStream extends InputStream implements DataInput {
         return values;
     }
 
+    /**
+     * Decoding twin to
+     * {@link BitOutputStream#encodePartitionedUniqueSortedArray(long[], int, ForkJoinPool)}
+     * <br>
+     * <br>
+     * For a seekable source (a byte-array, a ByteBuffer or a mapped file) the
+     * partitions are decoded in parallel on the given pool, else sequentially.
+     *
+     * @param pool the pool to decode on, or null for the common pool
+     * @return the decoded array of sorted, positive, unique longs
+     */
+    public long[] decodePartitionedUniqueSortedArray(ForkJoinPool pool) throws IOException {
+        int size = (int) decodeUnsignedVarBits(0);
+        long[] values = new long[size];
+        if (size == 0) {
+            return values;
+        }
+        int nBits = (int) decodeUnsignedVarBits(8);
+        int k = (int) decodeUnsignedVarBits(0);
+        int shift = nBits + 1 - k;
+        long[] partitions = decodeUniqueSortedArray();
+        int count = partitions.length;
+        long[] partitionSizes = new long[count];
+        decodeUnsignedVarBits((int) decodeUnsignedVarBits(0), partitionSizes, 0, count);
+        long[] lengths = new long[count];
+        decodeUnsignedVarBits((int) decodeUnsignedVarBits(0), lengths, 0, count);
+        reAlign();
+
+        if (buf == null) {
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                int partitionSize = (int) partitionSizes[i] + 1;
+                long prefix = partitions[i] << shift;
+                decodeUniqueSortedArrayIteratively(values, offset, partitionSize, shift - 1, prefix);
+                reAlign();
+                offset += partitionSize;
+            }
+            return values;
+        }
+        if (pool == null) {
+            pool = ForkJoinPool.commonPool();
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(count);
+        long position = getBitPosition();
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            long partitionPosition = position;
+            int partitionOffset = offset;
+            int partitionSize = (int) partitionSizes[i] + 1;
+            long prefix = partitions[i] << shift;
+            tasks.add(pool.submit(() -> {
+                BitInputStream view = createView();
+                view.seekToBit(partitionPosition);
+                view.decodeUniqueSortedArrayIteratively(values, partitionOffset, partitionSize, shift - 1, prefix);
+                return null;
+            }));
+            position += lengths[i] << 3;
+            offset += partitionSize;
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        seekToBit(position);
+        return values;
+    }
+
+    /**
+     * Lazy alternative to {@link #decodeUniqueSortedArray()}: the values are
+     * decoded one by one while iterating, without allocating an array. <br>
+     * <br>
+     * The iterator reads from this stream, so do not decode anything else while
+     * iterating. If iteration is terminated early, the stream is left somewhere
+     * within the encoded array. IOExceptions are re-thrown as
+     * UncheckedIOException.
+     *
+     * @return an iterator over the sorted, positive, unique longs
+     */
+    public PrimitiveIterator.OfLong decodeUniqueSortedArrayIterator() throws IOException {
+        int size = (int) decodeUnsignedVarBits(0);
+        return new UniqueSortedArrayIterator(this, size);
+    }
+
+    /**
+     * Same as {@link #decodeUniqueSortedArrayIterator()}, but returning a
+     * (sequential) LongStream.
+     *
+     * @return a stream of the sorted, positive, unique longs
+     */
+    public LongStream decodeUniqueSortedArrayStream() throws IOException {
+        int size = (int) decodeUnsignedVarBits(0);
+        Spliterator.OfLong spliterator = Spliterators.spliterator(new UniqueSortedArrayIterator(this, size), size,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL);
+        return StreamSupport.longStream(spliterator, false);
+    }
+
     /**
      * Decoding twin to
      * {@link BitOutputStream#encodeUniqueSortedArray( long[], int, int )} <br>
@@ -505,8 +1324,108 @@ public class BitInputStream extends InputStream implements DataInput {
     public void decodeUniqueSortedArray(long[] values, int offset, int size) throws IOException {
         if (size > 0) {
             int nBits = (int) decodeUnsignedVarBits(8);
-            decodeUniqueSortedArray(values, offset, size, nBits, 0L);
+            decodeUniqueSortedArrayIteratively(values, offset, size, nBits, 0L);
+        }
+    }
+
+    /**
+     * Iterative implementation of
+     * {@link #decodeUniqueSortedArray( long[], int, int, int, long )}, using an
+     * explicit work stack holding the pending 1-branches (at most one per bit
+     * level) and keeping the buffer word in local variables. The stack is
+     * re-used across calls, which matters for small (sub-)arrays.
+     * <br>
+     * It is also used to decode single blocks for {@link UniqueSortedArrayLookup},
+     * with {@code prefix} being the common high bits of that block.
+     */
+    void decodeUniqueSortedArrayIteratively(long[] values, int offset, int size, int nBits, long prefix)
+            throws IOException {
+        if (stackOffsets == null) {
+            stackOffsets = new int[64];
+            stackSizes = new int[64];
+            stackBitPositions = new int[64];
+            stackPrefixes = new long[64];
+        }
+        int[] offsets = stackOffsets;
+        int[] sizes = stackSizes;
+        int[] bitPositions = stackBitPositions;
+        long[] prefixes = stackPrefixes;
+        offsets[0] = offset;
+        sizes[0] = size;
+        bitPositions[0] = nBits;
+        prefixes[0] = prefix;
+        int stackSize = 1;
+        long word = b;
+        int count = bits;
+        while (stackSize > 0) {
+            stackSize--;
+            int subOffset = offsets[stackSize];
+            int subSize = sizes[stackSize];
+            int nextBitPos = bitPositions[stackSize];
+            long value = prefixes[stackSize];
+
+            // follow the 0-branches, pushing the 1-branches
+            for (;;) {
+                if (count < 32) {
+                    b = word;
+                    bits = count;
+                    fillBuffer();
+                    word = b;
+                    count = bits;
+                }
+                if (subSize == 1) { // last-choice shortcut
+                    int n = nextBitPos + 1;
+                    if (n <= count && n < 64) {
+                        values[subOffset] = value | ((word >>> 1) >>> (63 - n));
+                        word <<= n;
+                        count -= n;
+                    } else {
+                        b = word;
+                        bits = count;
+                        values[subOffset] = value | decodeBits(n);
+                        word = b;
+                        count = bits;
+                    }
+                    break;
+                }
+                if (nextBitPos < 0 || stackSize == 64) { // cannot happen for unique array
+                    throw new RuntimeException("unique violation");
+                }
+                long nextBit = 1L << nextBitPos;
+
+                // decodeBounded, inlined (sizes are < 2^31, so the code fits into the buffer word)
+                long min = subSize > nextBit ? subSize - nextBit : 0L;
+                long max = subSize > nextBit ? nextBit - min : subSize;
+                int n = 63 - Long.numberOfLeadingZeros(max | 1L);
+                long v = (word >>> 1) >>> (63 - n);
+                word <<= n;
+                count -= n;
+                long im = 1L << n;
+                if ((v | im) <= max) {
+                    if (word < 0L) {
+                        v |= im;
+                    }
+                    word <<= 1;
+                    count--;
+                }
+                int size1 = (int) (v + min);
+                int size2 = subSize - size1;
+                nextBitPos--;
+                if (size2 > 0) {
+                    offsets[stackSize] = subOffset + size1;
+                    sizes[stackSize] = size2;
+                    bitPositions[stackSize] = nextBitPos;
+                    prefixes[stackSize] = value | nextBit;
+                    stackSize++;
+                }
+                if (size1 == 0) {
+                    break;
+                }
+                subSize = size1;
+            }
         }
+        b = word;
+        bits = count;
     }
 
     /**
@@ -514,6 +1433,9 @@ public class BitInputStream extends InputStream implements DataInput {
      * {@link BitOutputStream#encodeUniqueSortedArray( long[], int, int, int, long )}
      * <br>
      * See also {@link #decodeUniqueSortedArray( long[], int, int )}
+     * <br><br>
+     * This is the recursive reference implementation, the public methods use a
+     * faster, iterative implementation of the same format.
      *
      * @param values     the array to encode
      * @param offset     position in this array where to start
@@ -564,7 +1486,28 @@ public class BitInputStream extends InputStream implements DataInput {
      */
     public final int decodeLookupIndex(int[] lengthArray, int lookupBits) throws IOException {
         fillBuffer();
-        int v = (int) (b >>> (64-lookupBits));
+        int v = (int) (b >>> 1 >>> (63-lookupBits)); // 2 shifts to get 0 for lookupBits=0
+        int count = lengthArray[v];
+        b <<= count;
+        bits -= count;
+        return v;
+    }
+
+    /**
+     * Same as {@link #decodeLookupIndex(int[], int)}, but for a lookup table
+     * located at the given offset in the lengthArray, so several tables (e.g. the
+     * levels of a multi-level huffman table) can share one array.
+     *
+     * @param lengthArray an array telling how much bits to consume for the observed
+     *                    bit-pattern
+     * @param offset      the position of the table in the lengthArray
+     * @param lookupBits  the table has a size of 2^lookupBits
+     *
+     * @return an index to the lookup array (including the offset)
+     */
+    public final int decodeLookupIndex(int[] lengthArray, int offset, int lookupBits) throws IOException {
+        fillBuffer();
+        int v = offset + (int) (b >>> 1 >>> (63-lookupBits));
         int count = lengthArray[v];
         b <<= count;
         bits -= count;
@@ -4,7 +4,12 @@ import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * BitOutputStream is a replacement for java.io.DataOutputStream extending it by
@@ -12,6 +17,11 @@ import java.nio.charset.StandardCharsets;
  * <br>
  * It automatically re-aligns to byte-alignment as soon as any of the methods of
  * OutputStream or DataOutput or its own method 'encodeVarBytes' is called.
+ * <br>
+ * Bits are collected in a 64-bit buffer word that is written as a whole when
+ * full. For speed, consider the buffered or array-backed modes (see
+ * {@link #BitOutputStream(OutputStream, int)}) that store that word into an
+ * internal byte-array instead of writing byte by byte to the underlying stream.
  */
 public class BitOutputStream extends OutputStream implements DataOutput {
 
@@ -19,9 +29,18 @@ public class BitOutputStream extends OutputStream implements DataOutput {
     private long b; // buffer word
     private long bytesWritten;
 
-    protected final OutputStream out;
+    protected OutputStream out;
     private DataOutputStream dos; // created lazily if needed
 
+    private byte[] buf; // byte buffer (buffered mode only)
+    private ByteBuffer wordView; // view on buf for storing whole words
+    private int count; // bytes in buf
+
+    // work stack of encodeUniqueSortedArrayIteratively, allocated lazily
+    private int[] stackOffsets;
+    private int[] stackSizes;
+    private int[] stackBitPositions;
+
     /**
      * Construct a BitOutputStream for the underlying OutputStream.
      * <br>
@@ -33,6 +52,40 @@ public class BitOutputStream extends OutputStream implements DataOutput {
         out = os;
     }
 
+    /**
+     * Construct an array-backed BitOutputStream that collects the encoded data
+     * in an internal byte-array that grows as needed.
+     * <br>
+     * Use {@link #toByteArray()} to get the encoded data.
+     */
+    public BitOutputStream() {
+        this(null, 256);
+    }
+
+    /**
+     * Construct a buffered BitOutputStream for the underlying OutputStream.
+     * <br>
+     * The encoded data is collected in an internal byte-array, to which the
+     * 64-bit buffer word is stored as a whole, and passed to the underlying
+     * OutputStream in chunks of {@code bufferSize}. This produces the same bytes as
+     * the unbuffered mode, but avoids calling the underlying OutputStream for
+     * every single byte.
+     * <br>
+     * If {@code os} is null, the byte-array grows as needed instead,
+     * see {@link #toByteArray()}.
+     *
+     * @param os         the underlying stream to write to (may be null)
+     * @param bufferSize the (initial) size of the internal byte-array (>= 8)
+     */
+    public BitOutputStream(OutputStream os, int bufferSize) {
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("bufferSize must be >= 8: " + bufferSize);
+        }
+        out = os;
+        buf = new byte[bufferSize];
+        wordView = ByteBuffer.wrap(buf);
+    }
+
     private void writeLowByte(long b) throws IOException {
         writeInternal((int) (b & 0xffL));
     }
@@ -42,10 +95,52 @@ public class BitOutputStream extends OutputStream implements DataOutput {
     }
 
     private void writeInternal(int b) throws IOException {
-        out.write(b);
+        if (buf != null) {
+            if (count == buf.length) {
+                makeRoom(1);
+            }
+            buf[count++] = (byte) b;
+        } else {
+            out.write(b);
+        }
         bytesWritten++;
     }
 
+    private void writeWord(long w) throws IOException {
+        if (buf != null) {
+            if (count > buf.length - 8) {
+                makeRoom(8);
+            }
+            wordView.putLong(count, w);
+            count += 8;
+            bytesWritten += 8;
+        } else {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeInternal((int) (w >>> shift));
+            }
+        }
+    }
+
+    // make room in buf for at least n more bytes, either by
+    // passing the buffer content to the underlying stream or by growing it
+    private void makeRoom(int n) throws IOException {
+        if (out != null) {
+            drainBuffer();
+            if (n <= buf.length) {
+                return;
+            }
+        }
+        buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + n));
+        wordView = ByteBuffer.wrap(buf);
+    }
+
+    private void drainBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
     private void flushBuffer() throws IOException {
         while (bits > 7) {
             writeHighByte(b);
@@ -55,12 +150,12 @@ public class BitOutputStream extends OutputStream implements DataOutput {
     }
 
     private void flushBufferAndReAlign() throws IOException {
-        while (bits > 0) {
+        flushBuffer();
+        if (bits > 0) {
             writeHighByte(b);
-            b <<= 8;
-            bits -= 8;
+            b = 0L;
+            bits = 0;
         }
-        bits = 0;
     }
 
     /**
@@ -79,6 +174,116 @@ public class BitOutputStream extends OutputStream implements DataOutput {
         writeLong(value);
     }
 
+    /**
+     * Get the encoded data of an array-backed BitOutputStream (see
+     * {@link #BitOutputStream()}). This re-aligns the stream.
+     *
+     * @return a copy of the encoded data
+     */
+    public byte[] toByteArray() throws IOException {
+        if (buf == null || out != null) {
+            throw new IllegalStateException("toByteArray needs an array-backed BitOutputStream");
+        }
+        flushBufferAndReAlign();
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Write the encoded data of an array-backed BitOutputStream (see
+     * {@link #BitOutputStream()}) to the given OutputStream, without copying it
+     * like {@link #toByteArray()}. This re-aligns the stream.
+     *
+     * @param os the stream to write to
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        if (buf == null || out != null) {
+            throw new IllegalStateException("writeTo needs an array-backed BitOutputStream");
+        }
+        flushBufferAndReAlign();
+        os.write(buf, 0, count);
+    }
+
+    /**
+     * Reset this BitOutputStream to its initial state, so it can be re-used
+     * instead of creating a new instance. Any data not yet passed to the
+     * underlying stream is discarded, so for an array-backed BitOutputStream
+     * this discards the encoded data, but keeps the internal byte-array.
+     */
+    public void reset() {
+        b = 0L;
+        bits = 0;
+        bytesWritten = 0L;
+        count = 0;
+    }
+
+    /**
+     * Same as {@link #reset()}, but switching to another underlying
+     * OutputStream. The buffering mode is kept, but a null stream always yields
+     * an array-backed BitOutputStream.
+     *
+     * @param os the underlying stream to write to (may be null)
+     */
+    public void reset(OutputStream os) {
+        reset();
+        out = os;
+        if (os == null && buf == null) {
+            buf = new byte[256];
+            wordView = ByteBuffer.wrap(buf);
+        }
+    }
+
+    // **** support for sections written in place (see PrefixedBitOutputStream) ****
+
+    // check whether this is an array-backed stream that can lend its byte-array
+    final boolean canLendBuffer() {
+        return buf != null && out == null;
+    }
+
+    // reserve a gap of the given size behind the data of this array-backed stream
+    // and let the borrower continue writing (as an array-backed stream) behind that
+    // gap. Returns the offset of the gap.
+    final int lendBuffer(BitOutputStream borrower, int gap) {
+        if (count > buf.length - gap - 8) {
+            buf = Arrays.copyOf(buf, Math.max(2 * buf.length, count + gap + 8));
+            wordView = ByteBuffer.wrap(buf);
+        }
+        while (bits > 7) { // flush whole bytes, pending bits (<8) stay in the word
+            buf[count++] = (byte) (b >>> 56);
+            b <<= 8;
+            bits -= 8;
+            bytesWritten++;
+        }
+        borrower.b = 0L;
+        borrower.bits = 0;
+        borrower.bytesWritten = 0L;
+        borrower.out = null;
+        borrower.buf = buf;
+        borrower.wordView = wordView;
+        borrower.count = count + gap;
+        return count;
+    }
+
+    // take back the (possibly grown) byte-array from the borrower, which must be
+    // re-aligned. The data behind the gap is not yet part of this stream, see appendLentData.
+    final void takeBackBuffer(BitOutputStream borrower) {
+        buf = borrower.buf;
+        wordView = borrower.wordView;
+        borrower.buf = null;
+        borrower.wordView = null;
+        borrower.count = 0;
+    }
+
+    // re-align and append the data written by the borrower by moving it
+    // from behind the gap, which is now (partly) filled
+    final void appendLentData(int offset, int length) throws IOException {
+        flushBufferAndReAlign();
+        if (offset != count) {
+            System.arraycopy(buf, offset, buf, count, length);
+        }
+        count += length;
+        bytesWritten += length;
+    }
+
     /**
      * Get the number of bits written so far.
      * <br>
@@ -97,14 +302,24 @@ public class BitOutputStream extends OutputStream implements DataOutput {
     @Override
     public void write(int b) throws IOException {
         flushBufferAndReAlign();
-        out.write(b);
-        bytesWritten++;
+        writeInternal(b);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
         flushBufferAndReAlign();
-        out.write(b, off, len);
+        if (buf == null) {
+            out.write(b, off, len);
+        } else if (out != null && len >= buf.length) {
+            drainBuffer();
+            out.write(b, off, len);
+        } else {
+            if (len > buf.length - count) {
+                makeRoom(len);
+            }
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
         bytesWritten += len;
     }
 
@@ -113,27 +328,38 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      * <br>
      * Please note that this does not trigger re-alignment, so if this
      * BitOutputStream is not currently byte-aligned, then the bit-buffer is not
-     * flushed.
+     * flushed completely.
      *
      * @throws IOException if an I/O error occurs.
      */
     @Override
     public void flush() throws IOException {
-        out.flush();
+        flushBuffer();
+        if (out != null) {
+            if (buf != null) {
+                drainBuffer();
+            }
+            out.flush();
+        }
     }
 
     @Override
     public void close() throws IOException {
         flushBufferAndReAlign();
-        out.close();
+        if (out != null) {
+            if (buf != null) {
+                drainBuffer();
+            }
+            out.close();
+        }
     }
 
     // ***************************************
     // **** METHODS of java.io.DataOutput ****
     // ***************************************
 
-    // delegate Methods of DataOutput to an instance of
-    // DataOutputStream created lazily
+    // the primitives are written directly to the buffer, the
+    // string methods are delegated to a DataOutputStream created lazily
     private DataOutputStream getDos() {
         if (dos == null) {
             dos = new DataOutputStream(this);
@@ -141,44 +367,61 @@ public class BitOutputStream extends OutputStream implements DataOutput {
         return dos;
     }
 
+    // re-align once and write the lower nBytes bytes of the value (big-endian)
+    private void writeAligned(long v, int nBytes) throws IOException {
+        flushBufferAndReAlign();
+        if (buf != null) {
+            if (count > buf.length - 8) {
+                makeRoom(8);
+            }
+            wordView.putLong(count, v << (64 - (nBytes << 3)));
+            count += nBytes;
+            bytesWritten += nBytes;
+        } else {
+            for (int shift = (nBytes - 1) << 3; shift >= 0; shift -= 8) {
+                writeInternal((int) (v >>> shift));
+            }
+        }
+    }
+
     @Override
     public void writeBoolean(boolean v) throws IOException {
-        getDos().writeBoolean(v);
+        writeAligned(v ? 1L : 0L, 1);
     }
 
     @Override
     public void writeByte(int v) throws IOException {
-        getDos().writeByte(v);
+        writeAligned(v, 1);
     }
 
     @Override
     public void writeShort(int v) throws IOException {
-        getDos().writeShort(v);
+        writeAligned(v, 2);
     }
 
     @Override
     public void writeChar(int v) throws IOException {
-        getDos().writeChar(v);
+        writeAligned(v, 2);
     }
 
     @Override
     public void writeInt(int v) throws IOException {
-        getDos().writeInt(v);
+        writeAligned(v, 4);
     }
 
     @Override
     public void writeLong(long v) throws IOException {
-        getDos().writeLong(v);
+        writeAligned(v, 8);
     }
 
     @Override
     public void writeFloat(float v) throws IOException {
-        getDos().writeFloat(v);
+        writeAligned(Float.floatToIntBits(v), 4);
     }
 
     @Override
     public void writeDouble(double v) throws IOException {
-        getDos().writeDouble(v);
+        writeAligned(Double.doubleToLongBits(v), 8);
     }
 
     @Override
@@ -215,7 +458,7 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      *
      * @see BitInputStream#decodeVarBytes
      */
-    public final void encodeVarBytes(long value) throws IOException {
+    public void encodeVarBytes(long value) throws IOException {
         flushBufferAndReAlign();
         long v = moveSignBit(value);
         for (;;) {
@@ -244,7 +487,7 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      *
      * @see BitInputStream#decodeSizedByteArray
      */
-    public final void encodeSizedByteArray(byte[] ab) throws IOException {
+    public void encodeSizedByteArray(byte[] ab) throws IOException {
         encodeVarBytes( ab == null ? -1L : ab.length );
         if ( ab != null ) {
             write( ab, 0, ab.length );
@@ -260,12 +503,15 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      *
      * @param value the bit to encode
      */
-    public final void encodeBit(boolean value) throws IOException {
-        flushBuffer();
+    public void encodeBit(boolean value) throws IOException {
         if (value) {
             b |= 1L << (63-bits);
         }
-        bits++;
+        if (++bits == 64) { // buffer full, write the whole word
+            writeWord(b);
+            b = 0L;
+            bits = 0;
+        }
     }
 
     /**
@@ -274,9 +520,8 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      * @param nBits the number of bit to encode
      * @param value the value from whom to encode the lower {@code nBits} bits
      */
-    public final void encodeBits(int nBits, long value) throws IOException {
-        flushBuffer();
-        if (nBits > 0 && bits + nBits <= 64) {
+    public void encodeBits(int nBits, long value) throws IOException {
+        if (nBits > 0 && bits + nBits < 64) {
             b |= (value << (64-nBits) ) >>> bits;
             bits += nBits;
             return;
@@ -284,9 +529,12 @@ public class BitOutputStream extends OutputStream implements DataOutput {
         if (nBits < 0 || nBits > 64) {
             throw new IllegalArgumentException("encodeBits: nBits out of range (0..64): " + nBits);
         }
-        if ( nBits > 0 ) {  // buffer too small, split
-            encodeBits(nBits-32, value >>> 32 );
-            encodeBits(32, value);
+        if ( nBits > 0 ) {  // buffer full, write the whole word and keep the rest
+            long v = value << (64-nBits);
+            int free = 64 - bits;
+            writeWord(b | (v >>> bits));
+            bits = nBits - free;
+            b = bits == 0 ? 0L : v << free;
         }
     }
 
@@ -313,25 +561,35 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      * @see BitInputStream#decodeUnsignedVarBits(int)
      * @see <a href="https://en.wikipedia.org/wiki/Exponential-Golomb_coding">Exponential-Golomb_coding</a>
      */
-    public final void encodeUnsignedVarBits(long value, int noisyBits) throws IOException {
+    public void encodeUnsignedVarBits(long value, int noisyBits) throws IOException {
         checkNoisyRange( noisyBits );
         if (value < 0) {
             throw new IllegalArgumentException("encodeUnsignedVarBits expects non-negative value but is: " + value);
         }
-        encodeUnsignedVarBits( value >>> noisyBits );
-        encodeBits(noisyBits,value);
+        writeUnsignedVarBits(value, noisyBits);
     }
 
-    private final void encodeUnsignedVarBits(long value) throws IOException {
-        long range = 0L;
-        int nBits = 0;
-        while (value > range) {
-            value -= range + 1L;
-            range = (range << 1) | 1L;
-            nBits++;
+    // encodeUnsignedVarBits without parameter checks
+    final void writeUnsignedVarBits(long value, int noisyBits) throws IOException {
+        // the code is (v+1) with n leading zeros, v=value>>>noisyBits, followed by the noisy bits
+        long v1 = (value >>> noisyBits) + 1L;
+        int n = 63 - Long.numberOfLeadingZeros(v1);
+        int nBits = 2 * n + 1 + noisyBits;
+        long noisyWord = value & ((1L << noisyBits) - 1L);
+        if (nBits <= 64) {
+            encodeBits(nBits, (v1 << noisyBits) | noisyWord);
+        } else {
+            encodeUnsignedVarBits(value >>> noisyBits);
+            encodeBits(noisyBits, noisyWord);
         }
-        encodeBits(nBits+1,1L);
-        encodeBits(nBits, value);
+    }
+
+    private final void encodeUnsignedVarBits(long value) throws IOException {
+        // (value+1) has n+1 significant bits and is prefixed by n zeros
+        long v1 = value + 1L;
+        int n = 63 - Long.numberOfLeadingZeros(v1);
+        encodeBits(n, 0L);
+        encodeBits(n + 1, v1);
     }
 
     /**
@@ -346,19 +604,33 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      * @see BitInputStream#decodeSignedVarBits(int)
      * @see <a href="https://en.wikipedia.org/wiki/Exponential-Golomb_coding">Exponential-Golomb_coding</a>
      */
-    public final void encodeSignedVarBits(long value, int noisyBits) throws IOException {
+    public void encodeSignedVarBits(long value, int noisyBits) throws IOException {
         checkNoisyRange( noisyBits );
+        writeSignedVarBits(value, noisyBits);
+    }
+
+    // encodeSignedVarBits without parameter checks
+    final void writeSignedVarBits(long value, int noisyBits) throws IOException {
 
         // shift by half the noisy range (can roll over, don't care..)
         long shiftedValue = noisyBits == 0 ? value : value + (1L<<(noisyBits-1));
         long lv = shiftedValue >> noisyBits;
-        boolean isCentral = lv == 0L;
-        encodeBit(isCentral);
-        if ( !isCentral ) {
-            encodeUnsignedVarBits( (lv < 0L ? -lv : lv) - 1L);
+        long noisyWord = shiftedValue & ((1L << noisyBits) - 1L);
+        if (lv == 0L) { // central: 1-bit + noisy bits
+            encodeBits(noisyBits + 1, (1L << noisyBits) | noisyWord);
+            return;
         }
-        encodeBits(noisyBits, shiftedValue);
-        if ( !isCentral ) {
+        // 0-bit + unsigned code of (abs(lv)-1) + noisy bits + sign bit
+        long absValue = lv < 0L ? -lv : lv;
+        int n = 63 - Long.numberOfLeadingZeros(absValue);
+        int nBits = 2 * n + noisyBits + 3;
+        if (nBits <= 64) {
+            long signBit = lv < 0L ? 1L : 0L;
+            encodeBits(nBits, (absValue << (noisyBits + 1)) | (noisyWord << 1) | signBit);
+        } else {
+            encodeBit(false);
+            encodeUnsignedVarBits(absValue - 1L);
+            encodeBits(noisyBits, noisyWord);
             encodeBit(lv < 0L);
         }
     }
@@ -369,6 +641,139 @@ public class BitOutputStream extends OutputStream implements DataOutput {
         }
     }
 
+    private static void checkArrayRange(int length, int offset, int size) {
+        if (offset < 0 || size < 0 || offset > length - size) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " size=" + size + " length=" + length);
+        }
+    }
+
+    /**
+     * Bulk version of {@link #encodeUnsignedVarBits(long,int)}, encoding
+     * {@code size} values starting at {@code offset}.
+     * <br><br>
+     * Parameters are checked once for the whole array.
+     *
+     * @param values    the array holding the (non-negative) values to encode
+     * @param offset    position in this array where to start
+     * @param size      number of values to encode
+     * @param noisyBits the number of lower bits considered noisy
+     *
+     * @see BitInputStream#decodeUnsignedVarBits(int, long[], int, int)
+     */
+    public void encodeUnsignedVarBits(long[] values, int offset, int size, int noisyBits) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        encodeUnsignedVarBits(values, null, offset, size, noisyBits);
+    }
+
+    /**
+     * Same as {@link #encodeUnsignedVarBits(long[],int,int,int)}, but for an int-array.
+     *
+     * @param values    the array holding the (non-negative) values to encode
+     * @param offset    position in this array where to start
+     * @param size      number of values to encode
+     * @param noisyBits the number of lower bits considered noisy
+     *
+     * @see BitInputStream#decodeUnsignedVarBits(int, int[], int, int)
+     */
+    public void encodeUnsignedVarBits(int[] values, int offset, int size, int noisyBits) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        encodeUnsignedVarBits(null, values, offset, size, noisyBits);
+    }
+
+    private void encodeUnsignedVarBits(long[] lValues, int[] iValues, int offset, int size, int noisyBits)
+            throws IOException {
+        checkNoisyRange( noisyBits );
+        int end = offset + size;
+        for (int i = offset; i < end; i++) {
+            long value = lValues != null ? lValues[i] : iValues[i];
+            if (value < 0) {
+                throw new IllegalArgumentException("encodeUnsignedVarBits expects non-negative value but is: " + value);
+            }
+            writeUnsignedVarBits(value, noisyBits);
+        }
+    }
+
+    /**
+     * Bulk version of {@link #encodeSignedVarBits(long,int)}, encoding
+     * {@code size} values starting at {@code offset}.
+     * <br><br>
+     * Parameters are checked once for the whole array.
+     *
+     * @param values    the array holding the values to encode
+     * @param offset    position in this array where to start
+     * @param size      number of values to encode
+     * @param noisyBits the number of lower bits considered noisy
+     *
+     * @see BitInputStream#decodeSignedVarBits(int, long[], int, int)
+     */
+    public void encodeSignedVarBits(long[] values, int offset, int size, int noisyBits) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        encodeSignedVarBits(values, null, offset, size, noisyBits, false);
+    }
+
+    /**
+     * Same as {@link #encodeSignedVarBits(long[],int,int,int)}, but for an int-array.
+     *
+     * @param values    the array holding the values to encode
+     * @param offset    position in this array where to start
+     * @param size      number of values to encode
+     * @param noisyBits the number of lower bits considered noisy
+     *
+     * @see BitInputStream#decodeSignedVarBits(int, int[], int, int)
+     */
+    public void encodeSignedVarBits(int[] values, int offset, int size, int noisyBits) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        encodeSignedVarBits(null, values, offset, size, noisyBits, false);
+    }
+
+    /**
+     * Same as {@link #encodeSignedVarBits(long[],int,int,int)}, but encoding
+     * the differences of subsequent values. The first value is encoded as the
+     * difference to 0.
+     *
+     * @param values    the array holding the values to encode
+     * @param offset    position in this array where to start
+     * @param size      number of values to encode
+     * @param noisyBits the number of lower bits considered noisy
+     *
+     * @see BitInputStream#decodeSignedVarBitsDeltas(int, long[], int, int)
+     */
+    public void encodeSignedVarBitsDeltas(long[] values, int offset, int size, int noisyBits) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        encodeSignedVarBits(values, null, offset, size, noisyBits, true);
+    }
+
+    /**
+     * Same as {@link #encodeSignedVarBitsDeltas(long[],int,int,int)}, but for an int-array.
+     *
+     * @param values    the array holding the values to encode
+     * @param offset    position in this array where to start
+     * @param size      number of values to encode
+     * @param noisyBits the number of lower bits considered noisy
+     *
+     * @see BitInputStream#decodeSignedVarBitsDeltas(int, int[], int, int)
+     */
+    public void encodeSignedVarBitsDeltas(int[] values, int offset, int size, int noisyBits) throws IOException {
+        checkArrayRange(values.length, offset, size);
+        encodeSignedVarBits(null, values, offset, size, noisyBits, true);
+    }
+
+    private void encodeSignedVarBits(long[] lValues, int[] iValues, int offset, int size, int noisyBits,
+            boolean deltas) throws IOException {
+        checkNoisyRange( noisyBits );
+        long lastValue = 0L;
+        int end = offset + size;
+        for (int i = offset; i < end; i++) {
+            long value = lValues != null ? lValues[i] : iValues[i];
+            if (deltas) {
+                long v = value;
+                value -= lastValue;
+                lastValue = v;
+            }
+            writeSignedVarBits(value, noisyBits);
+        }
+    }
+
     /**
      * Encode a long in the range 0..max (inclusive). For max = 2^n-1, this just
      * encodes n bits, but in general this is variable length encoding, with the
@@ -379,7 +784,7 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      *
      * @see BitInputStream#decodeBounded(long)
      */
-    public final void encodeBounded(long max, long value) throws IOException {
+    public void encodeBounded(long max, long value) throws IOException {
         if (max < 0L || value < 0) {
             throw new IllegalArgumentException("encodeBounded expects positive values");
         }
@@ -387,19 +792,21 @@ public class BitOutputStream extends OutputStream implements DataOutput {
             throw new IllegalArgumentException("value out of range");
         }
 
-        long m = max;
-        int n = 0;
-        while ((m >>>= 1) != 0L) {
-            n++;
-        }
-        encodeBits( n, value );
+        writeBounded(max, value);
+     }
 
-        // write the highest bit only if a 1-bit would yield a value <= max
+    // encodeBounded without parameter checks
+    final void writeBounded(long max, long value) throws IOException {
+        int n = 63 - Long.numberOfLeadingZeros(max | 1L); // floor(log2(max))
+
+        // write the highest bit (after the lower bits) only if a 1-bit would yield a value <= max
         long im = 1L << n; // integer mask
         if ((value | im) <= max ) {
-            encodeBit( (value & im) != 0L );
+            encodeBits( n + 1, (value << 1) | (value >>> n) );
+        } else {
+            encodeBits( n, value );
         }
-     }
+    }
 
     /**
      * encodeString() is similar writeUTF. But can
@@ -412,7 +819,7 @@ public class BitOutputStream extends OutputStream implements DataOutput {
      *
      * @see BitInputStream#decodeString
      */
-    public final void encodeString(String value) throws IOException {
+    public void encodeString(String value) throws IOException {
         if ( value == null ) {
             encodeUnsignedVarBits( 0L, 1 );
             return;
@@ -421,36 +828,116 @@ public class BitOutputStream extends OutputStream implements DataOutput {
             encodeUnsignedVarBits( 1L, 1 );
             return;
         }
-        // find the smallest character range that fits
+        // find the smallest character range that fits, and the UTF-8 length
+        int len = value.length();
         int type = 0;
-        for( int j=0; j<value.length(); j++ ) {
-            int c = value.charAt( j );
+        int utf8Length = 0;
+        for( int j=0; j<len; j++ ) {
+            char c = value.charAt( j );
             while( type < 3 &&  ( c < charRangeLow[type] || c >= charRangeHigh[type] ) ) {
                 type++;
             }
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (!Character.isSurrogate(c)) {
+                utf8Length += 3;
+            } else if (Character.isHighSurrogate(c) && j + 1 < len && Character.isLowSurrogate(value.charAt(j + 1))) {
+                utf8Length += 4;
+                j++;
+            } else {
+                utf8Length++; // unpaired surrogate, replaced by '?'
+            }
         }
         encodeUnsignedVarBits( type + 2, 1 );
         if ( type < 3 ) {
-            // encode a limited charset ( numeric, numeric+, ascii )
-            encodeUnsignedVarBits( value.length() - 1, 3 );
-            long min = charRangeLow[type];
-            long range = charRangeHigh[type]-min-1;
-            for( int j=0; j<value.length(); j++ ) {
-                int c = value.charAt(j);
-                encodeBounded(range, c - min);
+            // encode a limited charset ( numeric, numeric+, ascii ), batching the bounded codes
+            encodeUnsignedVarBits( len - 1, 3 );
+            int min = charRangeLow[type];
+            int[] codes = charCodes[type];
+            long acc = 0L;
+            int accBits = 0;
+            for( int j=0; j<len; j++ ) {
+                int code = codes[value.charAt(j) - min];
+                acc = (acc << (code & 0xff)) | (code >>> 8);
+                accBits += code & 0xff;
+                if (accBits > 56) {
+                    encodeBits(accBits, acc);
+                    acc = 0L;
+                    accBits = 0;
+                }
             }
+            encodeBits(accBits, acc);
             return;
         }
-        // encode UTF8
-        byte[] ab = value.getBytes(StandardCharsets.UTF_8);
-        encodeUnsignedVarBits( ab.length - 1, 3 );
-        write( ab );
+        // encode UTF8 (byte-aligned), straight from the chars
+        encodeUnsignedVarBits( utf8Length - 1, 3 );
+        padToByte();
+        long acc = 0L;
+        int accBits = 0;
+        for( int j=0; j<len; j++ ) {
+            int c = value.charAt(j);
+            int code;
+            int n;
+            if (c < 0x80) {
+                code = c;
+                n = 8;
+            } else if (c < 0x800) {
+                code = (0xc0 | c >> 6) << 8 | 0x80 | (c & 0x3f);
+                n = 16;
+            } else if (!Character.isSurrogate((char) c)) {
+                code = (0xe0 | c >> 12) << 16 | (0x80 | (c >> 6 & 0x3f)) << 8 | 0x80 | (c & 0x3f);
+                n = 24;
+            } else if (Character.isHighSurrogate((char) c) && j + 1 < len && Character.isLowSurrogate(value.charAt(j + 1))) {
+                int cp = Character.toCodePoint((char) c, value.charAt(++j));
+                code = (0xf0 | cp >> 18) << 24 | (0x80 | (cp >> 12 & 0x3f)) << 16 | (0x80 | (cp >> 6 & 0x3f)) << 8
+                        | 0x80 | (cp & 0x3f);
+                n = 32;
+            } else {
+                code = '?';
+                n = 8;
+            }
+            acc = (acc << n) | (code & 0xffffffffL);
+            accBits += n;
+            if (accBits > 32) {
+                encodeBits(accBits, acc);
+                acc = 0L;
+                accBits = 0;
+            }
+        }
+        encodeBits(accBits, acc);
+    }
+
+    // pad with 0-bits to the next byte boundary, like the re-alignment before writing bytes
+    private void padToByte() throws IOException {
+        bits = (bits + 7) & ~7;
+        if (bits == 64) {
+            writeWord(b);
+            b = 0L;
+            bits = 0;
+        }
     }
 
     // known character ranges: numeric, numeric+, ascii
     private static int[] charRangeLow = { 0x30, 0x2c, 0x20 };
     private static int[] charRangeHigh = { 0x3a, 0x3a, 0x80 };
 
+    // the bounded codes of the characters in each range as (code << 8) | length
+    private static final int[][] charCodes = new int[3][];
+    static {
+        for (int type = 0; type < 3; type++) {
+            long max = charRangeHigh[type] - charRangeLow[type] - 1;
+            int n = 63 - Long.numberOfLeadingZeros(max | 1L);
+            long im = 1L << n;
+            charCodes[type] = new int[(int) max + 1];
+            for (int v = 0; v <= max; v++) { // same as writeBounded
+                charCodes[type][v] = (v | im) <= max ? ((v << 1 & (int) (2 * im - 1)) | v >>> n) << 8 | (n + 1)
+                        : v << 8 | n;
+            }
+        }
+    }
+
     /**
      * Encode a positive long-array making use of the fact that it is sorted and
      * unique. This is done, starting with the most significant bit, by recursively
@@ -488,10 +975,275 @@ public class BitOutputStream extends OutputStream implements DataOutput {
             }
             checkUniqueSortedArray(values, offset, size);
             encodeUnsignedVarBits(nBits, 8);
-            encodeUniqueSortedArray(values, offset, size, nBits, 0L);
+            encodeUniqueSortedArrayIteratively(values, offset, size, nBits);
+        }
+    }
+
+    /**
+     * Iterative implementation of
+     * {@link #encodeUniqueSortedArray( long[], int, int, int, long )}, producing
+     * the same format. It uses an explicit work stack holding the pending
+     * 1-branches (at most one per bit level), re-used across calls, and finds
+     * the split positions by binary search.
+     */
+    private void encodeUniqueSortedArrayIteratively(long[] values, int offset, int size, int nBits)
+            throws IOException {
+        if (stackOffsets == null) {
+            stackOffsets = new int[64];
+            stackSizes = new int[64];
+            stackBitPositions = new int[64];
+        }
+        int[] offsets = stackOffsets;
+        int[] sizes = stackSizes;
+        int[] bitPositions = stackBitPositions;
+        offsets[0] = offset;
+        sizes[0] = size;
+        bitPositions[0] = nBits;
+        int stackSize = 1;
+        while (stackSize > 0) {
+            stackSize--;
+            int subOffset = offsets[stackSize];
+            int subSize = sizes[stackSize];
+            int nextBitPos = bitPositions[stackSize];
+
+            // follow the 0-branches, pushing the 1-branches
+            for (;;) {
+                if (subSize == 1) { // last-choice shortcut
+                    encodeBits(nextBitPos + 1, values[subOffset]);
+                    break;
+                }
+                if (nextBitPos < 0) { // cannot happen for unique array
+                    throw new RuntimeException("unique violation");
+                }
+                long nextBits = 1L << nextBitPos;
+                int lo = findSplit(values, subOffset, subSize, nextBits);
+                int size1 = lo - subOffset;
+                int size2 = subSize - size1;
+                writeSplit(subSize, size1, nextBits);
+                nextBitPos--;
+                if (size2 > 0) {
+                    offsets[stackSize] = lo;
+                    sizes[stackSize] = size2;
+                    bitPositions[stackSize] = nextBitPos;
+                    stackSize++;
+                }
+                if (size1 == 0) {
+                    break;
+                }
+                subSize = size1;
+            }
         }
     }
 
+    // binary search for the first value with the given bit being 1
+    private static int findSplit(long[] values, int offset, int size, long bit) {
+        int lo = offset;
+        int hi = offset + size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if ((values[mid] & bit) == 0L) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // encode the number of values with the current bit being 0
+    private void writeSplit(int subSize, int size1, long nextBits) throws IOException {
+        if (subSize > nextBits) {
+            long min = subSize - nextBits;
+            writeBounded(nextBits - min, size1 - min);
+        } else {
+            writeBounded(subSize, size1);
+        }
+    }
+
+    /**
+     * Same as {@link #encodeUniqueSortedArray( long[] )}, but adding a skip index
+     * that allows random access to the encoded array without decoding it as a
+     * whole, see {@link UniqueSortedArrayLookup}. <br>
+     * <br>
+     * The tree of the bit-split recursion is cut into blocks, which are the
+     * largest sub-trees holding at most {@code blockSize} values, and the index
+     * holds the bit-length of each block. A lookup then needs to decode a single
+     * block only, so the block size trades index size against lookup cost.
+     *
+     * @param values    the array to encode
+     * @param blockSize the maximum number of values per block
+     *
+     * @see UniqueSortedArrayLookup#UniqueSortedArrayLookup(BitInputStream)
+     */
+    public void encodeIndexedUniqueSortedArray(long[] values, int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        int size = values.length;
+        encodeUnsignedVarBits(size, 0);
+        if (size == 0) {
+            return;
+        }
+        checkUniqueSortedArray(values, 0, size);
+        int nBits = 63 - Long.numberOfLeadingZeros(values[size - 1] | 1L);
+
+        // encode the tree separately to learn the block lengths
+        int blockCount = countBlocks(values, 0, size, nBits, blockSize);
+        long[] blockLengths = new long[blockCount];
+        BitOutputStream tree = new BitOutputStream();
+        tree.encodeIndexedTree(values, 0, size, nBits, blockSize, blockLengths, 0);
+        long treeBits = tree.getBitPosition();
+        int noisyBits = 63 - Long.numberOfLeadingZeros((treeBits / blockCount) | 1L);
+
+        encodeUnsignedVarBits(nBits, 8);
+        encodeUnsignedVarBits(blockSize, 0);
+        encodeUnsignedVarBits(blockCount, 0);
+        encodeUnsignedVarBits(noisyBits, 0);
+        encodeUnsignedVarBits(blockLengths, 0, blockCount, noisyBits);
+
+        // append the tree
+        byte[] ab = tree.toByteArray();
+        ByteBuffer bb = ByteBuffer.wrap(ab);
+        int i = 0;
+        for (; treeBits >= 64; treeBits -= 64, i += 8) {
+            encodeBits(64, bb.getLong(i));
+        }
+        for (; treeBits >= 8; treeBits -= 8) {
+            encodeBits(8, ab[i++]);
+        }
+        if (treeBits > 0) {
+            encodeBits((int) treeBits, (ab[i] & 0xff) >>> (8 - treeBits));
+        }
+    }
+
+    /**
+     * Same as {@link #encodeUniqueSortedArray( long[] )}, but for large arrays:
+     * the array is split on its top {@code partitionBits} bits into partitions
+     * that are encoded independently and in parallel on the given pool. <br>
+     * <br>
+     * The output is a table of the non-empty partitions with their sizes and
+     * byte-lengths, followed by the byte-aligned partitions, so the decoder can
+     * decode them in parallel as well, see
+     * {@link BitInputStream#decodePartitionedUniqueSortedArray(ForkJoinPool)}.
+     *
+     * @param values        the array to encode
+     * @param partitionBits the number of high bits to split on (0..24)
+     * @param pool          the pool to encode on, or null for the common pool
+     */
+    public void encodePartitionedUniqueSortedArray(long[] values, int partitionBits, ForkJoinPool pool)
+            throws IOException {
+        if (partitionBits < 0 || partitionBits > 24) {
+            throw new IllegalArgumentException("partitionBits out of range (0..24): " + partitionBits);
+        }
+        int size = values.length;
+        encodeUnsignedVarBits(size, 0);
+        if (size == 0) {
+            return;
+        }
+        checkUniqueSortedArray(values, 0, size);
+        int nBits = 63 - Long.numberOfLeadingZeros(values[size - 1] | 1L);
+        int k = Math.min(partitionBits, nBits + 1);
+        int shift = nBits + 1 - k; // number of bits below the partition bits (0..63, as nBits <= 62)
+
+        // find the non-empty partitions
+        int maxCount = (int) Math.min(size, 1L << k);
+        long[] partitions = new long[maxCount];
+        long[] partitionSizes = new long[maxCount];
+        int count = 0;
+        for (int i = 0; i < size;) {
+            long partition = values[i] >>> shift;
+            int lo = i + 1;
+            int hi = size;
+            while (lo < hi) { // first value in a higher partition
+                int mid = (lo + hi) >>> 1;
+                if ((values[mid] >>> shift) == partition) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            partitions[count] = partition;
+            partitionSizes[count++] = lo - i;
+            i = lo;
+        }
+
+        // encode them in parallel
+        if (pool == null) {
+            pool = ForkJoinPool.commonPool();
+        }
+        List<ForkJoinTask<byte[]>> tasks = new ArrayList<>(count);
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            int partitionOffset = offset;
+            int partitionSize = (int) partitionSizes[i];
+            tasks.add(pool.submit(() -> {
+                BitOutputStream bos = new BitOutputStream();
+                bos.encodeUniqueSortedArrayIteratively(values, partitionOffset, partitionSize, shift - 1);
+                return bos.toByteArray();
+            }));
+            offset += partitionSize;
+            partitionSizes[i]--; // encoded as size-1
+        }
+        byte[][] data = new byte[count][];
+        long[] lengths = new long[count];
+        long totalLength = 0L;
+        for (int i = 0; i < count; i++) {
+            data[i] = tasks.get(i).join();
+            lengths[i] = data[i].length;
+            totalLength += lengths[i];
+        }
+
+        // the partition table
+        encodeUnsignedVarBits(nBits, 8);
+        encodeUnsignedVarBits(k, 0);
+        encodeUniqueSortedArray(Arrays.copyOf(partitions, count));
+        int noisyBits = 63 - Long.numberOfLeadingZeros((size / count) | 1L);
+        encodeUnsignedVarBits(noisyBits, 0);
+        encodeUnsignedVarBits(partitionSizes, 0, count, noisyBits);
+        noisyBits = 63 - Long.numberOfLeadingZeros((totalLength / count) | 1L);
+        encodeUnsignedVarBits(noisyBits, 0);
+        encodeUnsignedVarBits(lengths, 0, count, noisyBits);
+
+        // the partitions (writing re-aligns)
+        for (byte[] ab : data) {
+            write(ab);
+        }
+    }
+
+    private static int countBlocks(long[] values, int offset, int subSize, int nextBitPos, int blockSize) {
+        if (subSize <= blockSize) {
+            return 1;
+        }
+        int split = findSplit(values, offset, subSize, 1L << nextBitPos);
+        int size1 = split - offset;
+        int size2 = subSize - size1;
+        return (size1 > 0 ? countBlocks(values, offset, size1, nextBitPos - 1, blockSize) : 0)
+                + (size2 > 0 ? countBlocks(values, split, size2, nextBitPos - 1, blockSize) : 0);
+    }
+
+    // same format as encodeUniqueSortedArrayIteratively, recording the bit-length of each block
+    private int encodeIndexedTree(long[] values, int offset, int subSize, int nextBitPos, int blockSize,
+            long[] blockLengths, int block) throws IOException {
+        if (subSize <= blockSize) {
+            long blockStart = getBitPosition();
+            encodeUniqueSortedArrayIteratively(values, offset, subSize, nextBitPos);
+            blockLengths[block] = getBitPosition() - blockStart;
+            return block + 1;
+        }
+        long nextBits = 1L << nextBitPos;
+        int split = findSplit(values, offset, subSize, nextBits);
+        int size1 = split - offset;
+        int size2 = subSize - size1;
+        writeSplit(subSize, size1, nextBits);
+        if (size1 > 0) {
+            block = encodeIndexedTree(values, offset, size1, nextBitPos - 1, blockSize, blockLengths, block);
+        }
+        if (size2 > 0) {
+            block = encodeIndexedTree(values, split, size2, nextBitPos - 1, blockSize, blockLengths, block);
+        }
+        return block;
+    }
+
     private void checkUniqueSortedArray(long[] values, int offset, int size) {
         long lv = -1L;
         int end = offset + size;
@@ -505,10 +1257,13 @@ public class BitOutputStream extends OutputStream implements DataOutput {
     }
 
     /**
-     * Same as {@link #encodeUniqueSortedArray( long[], int, int, int )}, but
+     * Same as {@link #encodeUniqueSortedArray( long[], int, int )}, but
      * assuming that the most significant bit is known from context. This method
      * calls itself recursively down to subSize=1, where a fast shortcut kicks in to
      * encode the remaining bits of that remaining value.
+     * <br><br>
+     * This is the recursive reference implementation, the public methods use a
+     * faster, iterative implementation of the same format.
      *
      * @param values     the array to encode
      * @param offset     position in this array where to start
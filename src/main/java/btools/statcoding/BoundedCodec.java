@@ -0,0 +1,73 @@
+package btools.statcoding;
+
+import java.io.IOException;
+
+/**
+ * A BoundedCodec encodes and decodes values in the range 0..max (inclusive)
+ * in the same format as {@link BitOutputStream#encodeBounded(long, long)} and
+ * {@link BitInputStream#decodeBounded(long)}, but with the bit count and masks
+ * precomputed for a fixed max.
+ * <br><br>
+ * Instances are immutable and can be shared, so for a hot loop with a fixed
+ * max create one instance upfront.
+ */
+public final class BoundedCodec {
+
+    private final long max;
+    private final int nBits; // floor(log2(max))
+    private final long highBit; // the bit that is written only if it can be set
+
+    /**
+     * Construct a BoundedCodec for values in the range 0..max.
+     *
+     * @param max the maximum value (inclusive)
+     */
+    public BoundedCodec(long max) {
+        if (max < 0L) {
+            throw new IllegalArgumentException("max must not be negative: " + max);
+        }
+        this.max = max;
+        nBits = 63 - Long.numberOfLeadingZeros(max | 1L);
+        highBit = 1L << nBits;
+    }
+
+    /**
+     * Get the maximum value of this codec.
+     *
+     * @return the maximum value (inclusive)
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Encode a value.
+     *
+     * @param bos   the bit stream to encode to
+     * @param value the value to encode, expected in the range [0..max]
+     */
+    public void encode(BitOutputStream bos, long value) throws IOException {
+        if (value < 0L || value > max) {
+            throw new IllegalArgumentException("value out of range (0.." + max + "): " + value);
+        }
+        if ((value | highBit) <= max) { // the high bit follows the lower bits
+            bos.encodeBits(nBits + 1, (value << 1) | (value >>> nBits));
+        } else {
+            bos.encodeBits(nBits, value);
+        }
+    }
+
+    /**
+     * Decode a value.
+     *
+     * @param bis the bit stream to decode from
+     * @return the decoded value
+     */
+    public long decode(BitInputStream bis) throws IOException {
+        long value = bis.decodeBits(nBits);
+        if ((value | highBit) <= max && bis.decodeBit()) {
+            value |= highBit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,52 @@
+package btools.statcoding;
+
+/**
+ * MappedBitInputStream is a BitInputStream decoding directly from a memory
+ * mapped file, without copying and without a system call per access.
+ * <br><br>
+ * This is meant for read-only random access files: a {@link MappedFile} is
+ * created once and shared, and for every block to decode a lightweight
+ * MappedBitInputStream is created at the block's position.
+ */
+public class MappedBitInputStream extends BitInputStream {
+
+    /**
+     * Construct a MappedBitInputStream for the whole mapped file.
+     *
+     * @param file the mapped file to read from
+     */
+    public MappedBitInputStream(MappedFile file) {
+        this(file, 0L, file.size());
+    }
+
+    /**
+     * Construct a MappedBitInputStream starting at the given position and reading
+     * up to the end of the mapped file.
+     *
+     * @param file     the mapped file to read from
+     * @param position the file position where to start
+     */
+    public MappedBitInputStream(MappedFile file, long position) {
+        this(file, position, file.size() - position);
+    }
+
+    /**
+     * Construct a MappedBitInputStream for a section of the mapped file. Reading
+     * beyond the section behaves like reading beyond the end of a stream.
+     *
+     * @param file     the mapped file to read from
+     * @param position the file position where to start
+     * @param length   the length of the section in bytes
+     */
+    public MappedBitInputStream(MappedFile file, long position, long length) {
+        super(file.getSegments(), file.getSegmentSize(), checkRange(file, position, length), length);
+    }
+
+    private static long checkRange(MappedFile file, long position, long length) {
+        if (position < 0L || length < 0L || position + length > file.size()) {
+            throw new IllegalArgumentException(
+                    "section out of range: " + position + "+" + length + " (size=" + file.size() + ")");
+        }
+        return position;
+    }
+}
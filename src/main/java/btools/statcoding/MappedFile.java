@@ -0,0 +1,73 @@
+package btools.statcoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedFile is a read-only memory mapping of a file, to be shared by any
+ * number of {@link MappedBitInputStream}s decoding from it.
+ * <br><br>
+ * Because a single mapping is limited to 2 GB, larger files are mapped in
+ * segments of equal size. MappedBitInputStream transparently crosses segment
+ * boundaries.
+ * <br><br>
+ * Please note that there is no way to explicitly unmap a file in Java 8, the
+ * mapping is released when this object is garbage collected. It stays valid
+ * after the channel it was created from is closed.
+ */
+public final class MappedFile {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final ByteBuffer[] segments;
+    private final long segmentSize;
+    private final long size;
+
+    /**
+     * Map the whole file of the given channel (read-only).
+     *
+     * @param channel the channel to map
+     */
+    public MappedFile(FileChannel channel) throws IOException {
+        this(channel, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Map the whole file of the given channel (read-only) using the given segment
+     * size.
+     *
+     * @param channel     the channel to map
+     * @param segmentSize the size of the segments to map
+     */
+    public MappedFile(FileChannel channel, int segmentSize) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        size = channel.size();
+        int n = (int) Math.max(1L, (size + segmentSize - 1) / segmentSize);
+        segments = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long offset = i * this.segmentSize;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentSize, size - offset));
+        }
+    }
+
+    /**
+     * Get the size of the mapped file.
+     *
+     * @return the size in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    ByteBuffer[] getSegments() {
+        return segments;
+    }
+
+    long getSegmentSize() {
+        return segmentSize;
+    }
+}
@@ -1,6 +1,5 @@
 package btools.statcoding;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -8,23 +7,53 @@ import java.io.InputStream;
  * PrefixedBitInputStream reads a data section that is prefixed with version and
  * size information. Useful to decode a data structure that is expected to
  * evolve.
+ * <br><br>
+ * If the source stream is seekable (constructed from a byte-array, a
+ * ByteBuffer or a mapped file), this is a bounded view on the data section
+ * of the source, without copying, and the source is positioned right behind
+ * the section on construction. So the source can be used further on at any
+ * time, and any data not read from the section (e.g. a newer minor version)
+ * is skipped without any cost. Otherwise, the data section is read into an
+ * internal byte-array, which is kept when re-using the instance by
+ * {@link #reset(BitInputStream, long)}.
  */
 public class PrefixedBitInputStream extends BitInputStream {
 
     private long majorVersion;
     private long minorVersion;
+    private byte[] section = new byte[0];
 
     public PrefixedBitInputStream(BitInputStream sourceIn, long maxMajorVersion) throws IOException {
         super((InputStream) null);
-        majorVersion = sourceIn.decodeUnsignedVarBits(0)+1;
-        minorVersion = sourceIn.decodeUnsignedVarBits(0)+1;
+        reset(sourceIn, maxMajorVersion);
+    }
+
+    /**
+     * Reset this PrefixedBitInputStream to read the next data section from the
+     * given stream, so it can be re-used instead of creating a new instance.
+     *
+     * @param sourceIn        the stream to read the section from
+     * @param maxMajorVersion the maximum major version this decoder understands
+     */
+    public void reset(BitInputStream sourceIn, long maxMajorVersion) throws IOException {
+        SectionHeader header = sourceIn.decodeSectionHeader();
+        majorVersion = header.getMajorVersion();
+        minorVersion = header.getMinorVersion();
         if (majorVersion > maxMajorVersion) {
             throw new IllegalArgumentException(
                     "unknown major version " + majorVersion + " (max=" + maxMajorVersion + ")");
         }
-        byte[] ab = new byte[(int) sourceIn.decodeUnsignedVarBits(5)];
-        sourceIn.readFully(ab);
-        in = new ByteArrayInputStream(ab);
+        long sectionSize = header.getSize();
+        if (sourceIn.isSeekable()) {
+            resetToSection(sourceIn, sectionSize);
+            return;
+        }
+        int size = (int) sectionSize;
+        if (size > section.length) {
+            section = new byte[size];
+        }
+        sourceIn.readFully(section, 0, size);
+        reset(section, 0, size);
     }
 
     public long getMajorVersion() {
@@ -1,47 +1,128 @@
 package btools.statcoding;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * A PrefixedBitOutputStream is usually used to encode a data structure that is
  * expected to evolve.It prefixes the actual data section by a header containing
  * version information (major/minor) and the size of the data section in bytes.
- * 
+ *
  * A minor version change is expected to keep old decoders working by just
  * skipping any unknown, additional data. This is achieved by prefixing the
  * size.
+ * <br><br>
+ * If the underlying bit-stream is array-backed (see
+ * {@link BitOutputStream#BitOutputStream()}), which includes another
+ * PrefixedBitOutputStream, the data section is written in place into its
+ * byte-array, behind a gap reserved for the header. On close, the header is
+ * encoded into the gap and the data section is moved to close the rest of
+ * it, so no additional buffer is needed and nested sections cost one move
+ * per level. Otherwise, the data section is collected in an internal
+ * byte-array and copied to the underlying bit-stream on close. In both
+ * cases, the underlying bit-stream must not be used until this stream is
+ * closed. While writing in place, {@link #toByteArray()} and
+ * {@link #writeTo(OutputStream)} are not supported, because the shared
+ * byte-array also holds the target's data and the gap for the header.
+ * <br><br>
+ * An instance can be re-used by {@link #reset(BitOutputStream, long, long)}.
  */
 public class PrefixedBitOutputStream extends BitOutputStream {
 
-    private final BitOutputStream targetOut;
+    // the maximum number of bits of the size prefix (size < 2^31)
+    private static final int MAX_SIZE_BITS = varBitsLength(Integer.MAX_VALUE, 5);
+
+    private BitOutputStream targetOut;
     private long majorVersion;
     private long minorVersion;
+    private int dataStart = -1; // start of the data section in the target's array, -1 if not in place
 
     /**
      * Construct a PrefixedBitOutputStream. <br>
-     * 
+     *
      * @param targetOut    the underlying bit-stream
      * @param majorVersion the major version to encode into the prefix
      * @param minorVersion the minor version to encode into the prefix
      */
     public PrefixedBitOutputStream(BitOutputStream targetOut, long majorVersion, long minorVersion) {
-        super(new ByteArrayOutputStream());
+        super((OutputStream) null); // the byte-array is borrowed or allocated by setTarget
+        setTarget(targetOut, majorVersion, minorVersion);
+    }
+
+    /**
+     * Reset this PrefixedBitOutputStream to encode another data section, so it
+     * can be re-used instead of creating a new instance.
+     *
+     * @param targetOut    the underlying bit-stream
+     * @param majorVersion the major version to encode into the prefix
+     * @param minorVersion the minor version to encode into the prefix
+     */
+    public void reset(BitOutputStream targetOut, long majorVersion, long minorVersion) {
+        setTarget(targetOut, majorVersion, minorVersion);
+    }
+
+    private void setTarget(BitOutputStream targetOut, long majorVersion, long minorVersion) {
+        if ( majorVersion < 1 || minorVersion < 1 ) {
+            throw new IllegalArgumentException( "version numbers must be >= 1 : " + majorVersion + "/" + minorVersion );
+        }
         this.targetOut = targetOut;
         this.majorVersion = majorVersion;
         this.minorVersion = minorVersion;
-        if ( majorVersion < 1 || minorVersion < 1 ) {
-            throw new IllegalArgumentException( "version numbers must be >= 1 : " + majorVersion + "/" + minorVersion );
+        if (targetOut.canLendBuffer()) {
+            // up to 7 pending bits in the target + the header
+            int maxHeaderBits = 7 + varBitsLength(majorVersion - 1, 0) + varBitsLength(minorVersion - 1, 0)
+                    + MAX_SIZE_BITS;
+            int gap = (maxHeaderBits + 7) >>> 3;
+            dataStart = targetOut.lendBuffer(this, gap) + gap;
+        } else {
+            dataStart = -1;
+            reset(null); // allocates an own byte-array if needed
+        }
+    }
+
+    // the number of bits of encodeUnsignedVarBits(value, noisyBits)
+    private static int varBitsLength(long value, int noisyBits) {
+        long v1 = (value >>> noisyBits) + 1L;
+        return 2 * (63 - Long.numberOfLeadingZeros(v1)) + 1 + noisyBits;
+    }
+
+    @Override
+    public byte[] toByteArray() throws IOException {
+        checkNotInPlace("toByteArray");
+        return super.toByteArray();
+    }
+
+    @Override
+    public void writeTo(OutputStream os) throws IOException {
+        checkNotInPlace("writeTo");
+        super.writeTo(os);
+    }
+
+    private void checkNotInPlace(String method) {
+        if (dataStart >= 0) {
+            throw new IllegalStateException(method + " is not supported while writing in place");
         }
     }
 
     @Override
     public void close() throws IOException {
         super.close();
-        ByteArrayOutputStream bos = (ByteArrayOutputStream) out;
+        long size = getBitPosition() >>> 3;
+        if (dataStart >= 0) {
+            targetOut.takeBackBuffer(this);
+            encodeHeader(size);
+            targetOut.appendLentData(dataStart, (int) size);
+            dataStart = -1;
+        } else if (targetOut != null) {
+            encodeHeader(size);
+            writeTo(targetOut);
+        }
+        targetOut = null;
+    }
+
+    private void encodeHeader(long size) throws IOException {
         targetOut.encodeUnsignedVarBits(majorVersion-1, 0);
         targetOut.encodeUnsignedVarBits(minorVersion-1, 0);
-        targetOut.encodeUnsignedVarBits(bos.size(), 5);
-        bos.writeTo(targetOut);
+        targetOut.encodeUnsignedVarBits(size, 5);
     }
 }
@@ -0,0 +1,528 @@
+package btools.statcoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A BitOutputStream that accounts for the bits it writes, to find out where
+ * the size of an encoded format actually goes.
+ * <br><br>
+ * Bits are attributed to named scopes, which are marked by
+ * {@link #enterScope(String)} and {@link #exitScope()} (e.g. "lidar.deltas",
+ * "huffman.tree") and can be nested, and to the public write- or
+ * encode-method (including the DataOutput methods and
+ * {@link #writeSyncBlock(long)}) that wrote them.
+ * For methods, only the outermost call is accounted, so e.g. the bits of
+ * {@link #encodeString(String)} are not also counted for the var-bits codes
+ * that it uses internally.
+ * <br><br>
+ * For each scope and method, the number of calls, the total number of bits
+ * and a histogram of the bits per call is collected, see {@link #getReport()}.
+ * <br><br>
+ * This produces exactly the same encoding as a plain BitOutputStream, so it
+ * can just be substituted in an encoder for a profiling run. The accounting
+ * is done by overriding the write- and encode-methods, so a plain
+ * BitOutputStream is not affected at all.
+ */
+public class ProfilingBitOutputStream extends BitOutputStream {
+
+    /**
+     * The accounting for a scope or a method.
+     */
+    public static final class Stats {
+
+        private long count;
+        private long totalBits;
+        private final long[] histogram = new long[65];
+
+        void add(long bits) {
+            count++;
+            totalBits += bits;
+            histogram[64 - Long.numberOfLeadingZeros(bits)]++;
+        }
+
+        /**
+         * Get the number of calls (or scope entries).
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the total number of bits written.
+         *
+         * @return the number of bits
+         */
+        public long getTotalBits() {
+            return totalBits;
+        }
+
+        /**
+         * Get the histogram of the bits per call. Entry 0 counts calls writing no
+         * bits, entry n>0 counts calls writing 2^(n-1) .. 2^n-1 bits.
+         *
+         * @return a copy of the histogram (65 entries)
+         */
+        public long[] getHistogram() {
+            return Arrays.copyOf(histogram, histogram.length);
+        }
+    }
+
+    private final Map<String, Stats> scopeStats = new LinkedHashMap<>();
+    private final Map<String, Stats> methodStats = new LinkedHashMap<>();
+
+    private final List<Stats> scopeStack = new ArrayList<>();
+    private long[] scopeStarts = new long[8];
+    private int depth; // nesting depth of encode-method calls
+
+    /**
+     * Construct a ProfilingBitOutputStream for the underlying OutputStream.
+     *
+     * @param os the underlying stream to write to
+     */
+    public ProfilingBitOutputStream(OutputStream os) {
+        super(os);
+    }
+
+    /**
+     * Construct an array-backed ProfilingBitOutputStream, see
+     * {@link BitOutputStream#BitOutputStream()}.
+     */
+    public ProfilingBitOutputStream() {
+        super();
+    }
+
+    /**
+     * Construct a buffered ProfilingBitOutputStream, see
+     * {@link BitOutputStream#BitOutputStream(OutputStream, int)}.
+     *
+     * @param os         the underlying stream to write to (may be null)
+     * @param bufferSize the (initial) size of the internal byte-array (>= 8)
+     */
+    public ProfilingBitOutputStream(OutputStream os, int bufferSize) {
+        super(os, bufferSize);
+    }
+
+    /**
+     * Start attributing the bits written to the given scope, until the matching
+     * call to {@link #exitScope()}. Scopes can be nested, the bits of an inner
+     * scope are included in the outer one.
+     *
+     * @param name the name of the scope
+     */
+    public void enterScope(String name) {
+        Stats stats = scopeStats.computeIfAbsent(name, k -> new Stats());
+        int n = scopeStack.size();
+        if (n == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, 2 * n);
+        }
+        scopeStarts[n] = getBitPosition();
+        scopeStack.add(stats);
+    }
+
+    /**
+     * Leave the scope entered last.
+     */
+    public void exitScope() {
+        int n = scopeStack.size();
+        if (n == 0) {
+            throw new IllegalStateException("exitScope without enterScope");
+        }
+        scopeStack.remove(n - 1).add(getBitPosition() - scopeStarts[n - 1]);
+    }
+
+    /**
+     * Get the accounting per scope, in the order the scopes were first entered.
+     *
+     * @return a map from scope name to statistics
+     */
+    public Map<String, Stats> getScopeStats() {
+        return scopeStats;
+    }
+
+    /**
+     * Get the accounting per encode-method, in the order the methods were first
+     * called. Overloaded methods for arrays are reported with a "[]" suffix.
+     *
+     * @return a map from method name to statistics
+     */
+    public Map<String, Stats> getMethodStats() {
+        return methodStats;
+    }
+
+    /**
+     * Clear the accounting, but not the open scopes.
+     */
+    public void clearStats() {
+        scopeStats.clear();
+        methodStats.clear();
+        for (int i = 0; i < scopeStack.size(); i++) {
+            scopeStack.set(i, new Stats()); // detached from the map
+        }
+    }
+
+    /**
+     * Get a summary of the accounting as a text table, with a line per scope and
+     * per method, showing the count, the total bits, the mean bits per call and
+     * the share of all bits written.
+     *
+     * @return the report
+     */
+    public String getReport() {
+        long total = getBitPosition();
+        StringBuilder sb = new StringBuilder();
+        sb.append("total bits=").append(total).append('\n');
+        appendReport(sb, "scope", scopeStats, total);
+        appendReport(sb, "method", methodStats, total);
+        return sb.toString();
+    }
+
+    private static void appendReport(StringBuilder sb, String kind, Map<String, Stats> map, long total) {
+        for (Map.Entry<String, Stats> e : map.entrySet()) {
+            Stats s = e.getValue();
+            sb.append(String.format("%-6s %-32s count=%d bits=%d mean=%.1f share=%.1f%%%n", kind, e.getKey(),
+                    s.count, s.totalBits, s.count == 0 ? 0. : s.totalBits / (double) s.count,
+                    total == 0 ? 0. : 100. * s.totalBits / total));
+        }
+    }
+
+    // start of an encode-method: returns the start position for the outermost call
+    private long enter() {
+        return depth++ == 0 ? getBitPosition() : -1L;
+    }
+
+    private void exit(String method, long start) {
+        if (--depth == 0) {
+            methodStats.computeIfAbsent(method, k -> new Stats()).add(getBitPosition() - start);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = enter();
+        try {
+            super.write(b);
+        } finally {
+            exit("write", start);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = enter();
+        try {
+            super.write(b, off, len);
+        } finally {
+            exit("write", start);
+        }
+    }
+
+    @Override
+    public void writeSyncBlock(long value) throws IOException {
+        long start = enter();
+        try {
+            super.writeSyncBlock(value);
+        } finally {
+            exit("writeSyncBlock", start);
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        long start = enter();
+        try {
+            super.writeBoolean(v);
+        } finally {
+            exit("writeBoolean", start);
+        }
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        long start = enter();
+        try {
+            super.writeByte(v);
+        } finally {
+            exit("writeByte", start);
+        }
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        long start = enter();
+        try {
+            super.writeShort(v);
+        } finally {
+            exit("writeShort", start);
+        }
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        long start = enter();
+        try {
+            super.writeChar(v);
+        } finally {
+            exit("writeChar", start);
+        }
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        long start = enter();
+        try {
+            super.writeInt(v);
+        } finally {
+            exit("writeInt", start);
+        }
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        long start = enter();
+        try {
+            super.writeLong(v);
+        } finally {
+            exit("writeLong", start);
+        }
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        long start = enter();
+        try {
+            super.writeFloat(v);
+        } finally {
+            exit("writeFloat", start);
+        }
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        long start = enter();
+        try {
+            super.writeDouble(v);
+        } finally {
+            exit("writeDouble", start);
+        }
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        long start = enter();
+        try {
+            super.writeBytes(s);
+        } finally {
+            exit("writeBytes", start);
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        long start = enter();
+        try {
+            super.writeChars(s);
+        } finally {
+            exit("writeChars", start);
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        long start = enter();
+        try {
+            super.writeUTF(s);
+        } finally {
+            exit("writeUTF", start);
+        }
+    }
+
+    @Override
+    public void encodeVarBytes(long value) throws IOException {
+        long start = enter();
+        try {
+            super.encodeVarBytes(value);
+        } finally {
+            exit("encodeVarBytes", start);
+        }
+    }
+
+    @Override
+    public void encodeSizedByteArray(byte[] ab) throws IOException {
+        long start = enter();
+        try {
+            super.encodeSizedByteArray(ab);
+        } finally {
+            exit("encodeSizedByteArray", start);
+        }
+    }
+
+    @Override
+    public void encodeBit(boolean value) throws IOException {
+        long start = enter();
+        try {
+            super.encodeBit(value);
+        } finally {
+            exit("encodeBit", start);
+        }
+    }
+
+    @Override
+    public void encodeBits(int nBits, long value) throws IOException {
+        long start = enter();
+        try {
+            super.encodeBits(nBits, value);
+        } finally {
+            exit("encodeBits", start);
+        }
+    }
+
+    @Override
+    public void encodeUnsignedVarBits(long value, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeUnsignedVarBits(value, noisyBits);
+        } finally {
+            exit("encodeUnsignedVarBits", start);
+        }
+    }
+
+    @Override
+    public void encodeSignedVarBits(long value, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeSignedVarBits(value, noisyBits);
+        } finally {
+            exit("encodeSignedVarBits", start);
+        }
+    }
+
+    @Override
+    public void encodeUnsignedVarBits(long[] values, int offset, int size, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeUnsignedVarBits(values, offset, size, noisyBits);
+        } finally {
+            exit("encodeUnsignedVarBits[]", start);
+        }
+    }
+
+    @Override
+    public void encodeUnsignedVarBits(int[] values, int offset, int size, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeUnsignedVarBits(values, offset, size, noisyBits);
+        } finally {
+            exit("encodeUnsignedVarBits[]", start);
+        }
+    }
+
+    @Override
+    public void encodeSignedVarBits(long[] values, int offset, int size, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeSignedVarBits(values, offset, size, noisyBits);
+        } finally {
+            exit("encodeSignedVarBits[]", start);
+        }
+    }
+
+    @Override
+    public void encodeSignedVarBits(int[] values, int offset, int size, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeSignedVarBits(values, offset, size, noisyBits);
+        } finally {
+            exit("encodeSignedVarBits[]", start);
+        }
+    }
+
+    @Override
+    public void encodeSignedVarBitsDeltas(long[] values, int offset, int size, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeSignedVarBitsDeltas(values, offset, size, noisyBits);
+        } finally {
+            exit("encodeSignedVarBitsDeltas[]", start);
+        }
+    }
+
+    @Override
+    public void encodeSignedVarBitsDeltas(int[] values, int offset, int size, int noisyBits) throws IOException {
+        long start = enter();
+        try {
+            super.encodeSignedVarBitsDeltas(values, offset, size, noisyBits);
+        } finally {
+            exit("encodeSignedVarBitsDeltas[]", start);
+        }
+    }
+
+    @Override
+    public void encodeBounded(long max, long value) throws IOException {
+        long start = enter();
+        try {
+            super.encodeBounded(max, value);
+        } finally {
+            exit("encodeBounded", start);
+        }
+    }
+
+    @Override
+    public void encodeString(String value) throws IOException {
+        long start = enter();
+        try {
+            super.encodeString(value);
+        } finally {
+            exit("encodeString", start);
+        }
+    }
+
+    @Override
+    public void encodeUniqueSortedArray(long[] values, int offset, int size) throws IOException {
+        long start = enter();
+        try {
+            super.encodeUniqueSortedArray(values, offset, size);
+        } finally {
+            exit("encodeUniqueSortedArray", start);
+        }
+    }
+
+    @Override
+    public void encodeUniqueSortedArray(long[] values) throws IOException {
+        long start = enter();
+        try {
+            super.encodeUniqueSortedArray(values);
+        } finally {
+            exit("encodeUniqueSortedArray", start);
+        }
+    }
+
+    @Override
+    public void encodeIndexedUniqueSortedArray(long[] values, int blockSize) throws IOException {
+        long start = enter();
+        try {
+            super.encodeIndexedUniqueSortedArray(values, blockSize);
+        } finally {
+            exit("encodeIndexedUniqueSortedArray", start);
+        }
+    }
+
+    @Override
+    public void encodePartitionedUniqueSortedArray(long[] values, int partitionBits, ForkJoinPool pool)
+            throws IOException {
+        long start = enter();
+        try {
+            super.encodePartitionedUniqueSortedArray(values, partitionBits, pool);
+        } finally {
+            exit("encodePartitionedUniqueSortedArray", start);
+        }
+    }
+}
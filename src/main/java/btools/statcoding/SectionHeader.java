@@ -0,0 +1,53 @@
+package btools.statcoding;
+
+/**
+ * The header of a data section as written by {@link PrefixedBitOutputStream}:
+ * the major and minor version and the size of the section in bytes.
+ *
+ * @see BitInputStream#peekSectionHeader()
+ * @see BitInputStream#skipSection()
+ */
+public final class SectionHeader {
+
+    private final long majorVersion;
+    private final long minorVersion;
+    private final long size;
+
+    SectionHeader(long majorVersion, long minorVersion, long size) {
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.size = size;
+    }
+
+    /**
+     * Get the major version of the section.
+     *
+     * @return the major version
+     */
+    public long getMajorVersion() {
+        return majorVersion;
+    }
+
+    /**
+     * Get the minor version of the section.
+     *
+     * @return the minor version
+     */
+    public long getMinorVersion() {
+        return minorVersion;
+    }
+
+    /**
+     * Get the size of the data section (not including the header).
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "section v" + majorVersion + "." + minorVersion + " size=" + size;
+    }
+}
@@ -0,0 +1,72 @@
+package btools.statcoding;
+
+/**
+ * A bounded cache of canonical String instances for
+ * {@link BitInputStream#decodeString(StringCache)}.
+ * <br><br>
+ * It is a direct-mapped table indexed by the hash of the decoded characters,
+ * so a repeated string is returned as the same instance without allocating,
+ * and a colliding string just replaces the older entry. This pays off for
+ * repetitive data like codes, tag values or manufacturer names.
+ * <br><br>
+ * A cache can be shared between streams, but it is not thread-safe.
+ */
+public final class StringCache {
+
+    private final String[] entries;
+    private final int mask;
+
+    /**
+     * Construct a StringCache holding up to the given number of entries.
+     *
+     * @param capacity the number of entries, rounded up to a power of 2
+     */
+    public StringCache(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range (1..2^30): " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        entries = new String[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Get the number of entries of this cache.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /**
+     * Get the canonical String for the given characters.
+     *
+     * @param ac  the buffer holding the characters
+     * @param len the number of characters
+     * @return the cached or a new String
+     */
+    String get(char[] ac, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + ac[i];
+        }
+        int slot = (h ^ (h >>> 16)) & mask;
+        String s = entries[slot];
+        if (s != null && s.length() == len) {
+            int i = 0;
+            while (i < len && s.charAt(i) == ac[i]) {
+                i++;
+            }
+            if (i == len) {
+                return s;
+            }
+        }
+        s = new String(ac, 0, len);
+        entries[slot] = s;
+        return s;
+    }
+}
@@ -0,0 +1,60 @@
+package btools.statcoding;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * A small per-thread pool of re-usable objects like bit streams or encoders,
+ * for callers that encode or decode many small records and want to avoid
+ * allocating (and warming up) new instances per record.
+ * <br><br>
+ * Each thread has its own stack of idle instances, so no synchronization is
+ * needed. An acquired instance must be reset by the caller (e.g. with
+ * {@link BitOutputStream#reset(java.io.OutputStream)} or
+ * {@link BitInputStream#reset(byte[])}) and should be released by the same
+ * thread. Released instances beyond the idle limit are just dropped.
+ *
+ * @param <T> the type of the pooled objects
+ */
+public final class ThreadLocalPool<T> {
+
+    private final Supplier<T> factory;
+    private final int maxIdle;
+    private final ThreadLocal<ArrayDeque<T>> idle = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * Construct a ThreadLocalPool.
+     *
+     * @param factory creates a new instance if none is idle
+     * @param maxIdle the maximum number of idle instances kept per thread
+     */
+    public ThreadLocalPool(Supplier<T> factory, int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("maxIdle must be >= 0: " + maxIdle);
+        }
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Get an idle instance of the current thread, or a new one.
+     *
+     * @return the instance
+     */
+    public T acquire() {
+        T obj = idle.get().pollFirst();
+        return obj != null ? obj : factory.get();
+    }
+
+    /**
+     * Return an instance to the pool of the current thread.
+     *
+     * @param obj the instance that is no longer used
+     */
+    public void release(T obj) {
+        ArrayDeque<T> stack = idle.get();
+        if (obj != null && stack.size() < maxIdle) {
+            stack.addFirst(obj);
+        }
+    }
+}
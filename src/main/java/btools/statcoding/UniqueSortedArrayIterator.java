@@ -0,0 +1,85 @@
+package btools.statcoding;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Lazy decoder for the format of
+ * {@link BitOutputStream#encodeUniqueSortedArray(long[], int, int)}, decoding
+ * one value per call to {@link #nextLong()}.
+ * <br><br>
+ * The pending 1-branches of the bit-split recursion are kept on a work stack
+ * which holds at most one entry per bit level, so memory does not depend on
+ * the array size.
+ */
+final class UniqueSortedArrayIterator implements PrimitiveIterator.OfLong {
+
+    private final BitInputStream bis;
+    private final int[] sizes = new int[64];
+    private final int[] bitPositions = new int[64];
+    private final long[] prefixes = new long[64];
+    private int stackSize;
+    private int remaining;
+
+    UniqueSortedArrayIterator(BitInputStream bis, int size) throws IOException {
+        this.bis = bis;
+        remaining = size;
+        if (size > 0) {
+            sizes[0] = size;
+            bitPositions[0] = (int) bis.decodeUnsignedVarBits(8);
+            stackSize = 1;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining > 0;
+    }
+
+    @Override
+    public long nextLong() {
+        if (remaining == 0) {
+            throw new NoSuchElementException();
+        }
+        try {
+            stackSize--;
+            int subSize = sizes[stackSize];
+            int nextBitPos = bitPositions[stackSize];
+            long value = prefixes[stackSize];
+
+            // follow the 0-branches, pushing the 1-branches
+            while (subSize > 1) {
+                if (nextBitPos < 0 || stackSize == 64) { // cannot happen for unique array
+                    throw new RuntimeException("unique violation");
+                }
+                long nextBit = 1L << nextBitPos;
+                int size1;
+                if (subSize > nextBit) {
+                    long min = subSize - nextBit;
+                    size1 = (int) (bis.decodeBounded(nextBit - min) + min);
+                } else {
+                    size1 = (int) bis.decodeBounded(subSize);
+                }
+                int size2 = subSize - size1;
+                nextBitPos--;
+                if (size1 == 0) {
+                    value |= nextBit;
+                    continue;
+                }
+                if (size2 > 0) {
+                    sizes[stackSize] = size2;
+                    bitPositions[stackSize] = nextBitPos;
+                    prefixes[stackSize] = value | nextBit;
+                    stackSize++;
+                }
+                subSize = size1;
+            }
+            remaining--;
+            return value | bis.decodeBits(nextBitPos + 1); // last-choice shortcut
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package btools.statcoding;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Random access to a unique sorted array encoded by
+ * {@link BitOutputStream#encodeIndexedUniqueSortedArray(long[], int)}, without
+ * decoding it as a whole.
+ * <br><br>
+ * On construction, the skip index and the upper levels of the bit-split tree
+ * (the nodes above the blocks) are read, which is cheap compared to the
+ * array itself. A query then locates its block by binary search and decodes
+ * just that block, so {@link #contains(long)}, {@link #rank(long)} and
+ * {@link #select(int)} cost at most one block of values each. The most
+ * recently decoded block is cached.
+ * <br><br>
+ * This needs a seekable source (a BitInputStream constructed from a
+ * byte-array, a ByteBuffer or a mapped file). The lookup reads through a view
+ * of its own, so the given stream can be used further on. Instances are not
+ * thread-safe.
+ */
+public final class UniqueSortedArrayLookup {
+
+    private final BitInputStream source;
+    private final int size;
+
+    // the blocks in ascending order
+    private final long[] prefixes; // the common high bits of each block
+    private final int[] levels; // the next bit position below the prefix
+    private final int[] ranks; // number of values before each block (plus the total)
+    private final long[] offsets; // bit position of each block in the source
+
+    private final long[] block;
+    private int blockIndex = -1;
+
+    /**
+     * Read the header and the skip index of an indexed unique sorted array
+     * and position the given stream right after the encoded array.
+     *
+     * @param bis the stream to read from, positioned at the encoded array
+     * @throws IOException if the source is not seekable
+     */
+    public UniqueSortedArrayLookup(BitInputStream bis) throws IOException {
+        size = (int) bis.decodeUnsignedVarBits(0);
+        if (size == 0) {
+            source = null;
+            prefixes = new long[0];
+            levels = new int[0];
+            ranks = new int[1];
+            offsets = new long[0];
+            block = new long[0];
+            return;
+        }
+        int nBits = (int) bis.decodeUnsignedVarBits(8);
+        int blockSize = (int) bis.decodeUnsignedVarBits(0);
+        int blockCount = (int) bis.decodeUnsignedVarBits(0);
+        int noisyBits = (int) bis.decodeUnsignedVarBits(0);
+        long[] blockLengths = new long[blockCount];
+        bis.decodeUnsignedVarBits(noisyBits, blockLengths, 0, blockCount);
+
+        prefixes = new long[blockCount];
+        levels = new int[blockCount];
+        ranks = new int[blockCount + 1];
+        offsets = new long[blockCount];
+
+        source = bis.createView();
+        source.seekToBit(bis.getBitPosition());
+        if (readNodes(size, nBits, 0L, blockSize, blockLengths, 0) != blockCount) {
+            throw new IllegalArgumentException("corrupt index: block count mismatch");
+        }
+        int maxBlockSize = 0;
+        for (int i = 0; i < blockCount; i++) {
+            maxBlockSize = Math.max(maxBlockSize, ranks[i + 1] - ranks[i]);
+        }
+        block = new long[maxBlockSize];
+        bis.seekToBit(source.getBitPosition());
+    }
+
+    // walk the nodes above the blocks, skipping the blocks themselves
+    private int readNodes(int subSize, int nextBitPos, long prefix, int blockSize, long[] blockLengths, int i)
+            throws IOException {
+        if (subSize <= blockSize) {
+            if (i >= blockLengths.length) {
+                throw new IllegalArgumentException("corrupt index: too many blocks");
+            }
+            prefixes[i] = prefix;
+            levels[i] = nextBitPos;
+            ranks[i + 1] = ranks[i] + subSize;
+            offsets[i] = source.getBitPosition();
+            source.seekToBit(offsets[i] + blockLengths[i]);
+            return i + 1;
+        }
+        if (nextBitPos < 0) { // cannot happen for unique array
+            throw new RuntimeException("unique violation");
+        }
+        long nextBit = 1L << nextBitPos;
+        int size1;
+        if (subSize > nextBit) {
+            long min = subSize - nextBit;
+            size1 = (int) (source.decodeBounded(nextBit - min) + min);
+        } else {
+            size1 = (int) source.decodeBounded(subSize);
+        }
+        int size2 = subSize - size1;
+        if (size1 > 0) {
+            i = readNodes(size1, nextBitPos - 1, prefix, blockSize, blockLengths, i);
+        }
+        if (size2 > 0) {
+            i = readNodes(size2, nextBitPos - 1, prefix | nextBit, blockSize, blockLengths, i);
+        }
+        return i;
+    }
+
+    /**
+     * Get the number of values in the array.
+     *
+     * @return the array size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the array contains the given value.
+     *
+     * @param value the value to look for
+     * @return true if the value is in the array
+     */
+    public boolean contains(long value) throws IOException {
+        return find(value) >= 0;
+    }
+
+    /**
+     * Get the number of values in the array that are smaller than the given
+     * value, which is the index of the value if it is contained.
+     *
+     * @param value the value to rank
+     * @return the number of smaller values
+     */
+    public int rank(long value) throws IOException {
+        int idx = find(value);
+        return idx >= 0 ? idx : -idx - 1;
+    }
+
+    /**
+     * Get the value at the given index of the array.
+     *
+     * @param index the index (0..size-1)
+     * @return the value at that index
+     */
+    public long select(int index) throws IOException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index out of range: " + index);
+        }
+        int lo = 0;
+        int hi = prefixes.length;
+        while (hi - lo > 1) { // last block with ranks[i] <= index
+            int mid = (lo + hi) >>> 1;
+            if (ranks[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return loadBlock(lo)[index - ranks[lo]];
+    }
+
+    /**
+     * Decode the whole array.
+     *
+     * @return the decoded array
+     */
+    public long[] toArray() throws IOException {
+        long[] values = new long[size];
+        for (int i = 0; i < prefixes.length; i++) {
+            source.seekToBit(offsets[i]);
+            source.decodeUniqueSortedArrayIteratively(values, ranks[i], ranks[i + 1] - ranks[i], levels[i],
+                    prefixes[i]);
+        }
+        return values;
+    }
+
+    // index of the value if contained, else (-(insertion point) - 1) as in Arrays.binarySearch
+    private int find(long value) throws IOException {
+        int lo = 0;
+        int hi = prefixes.length;
+        while (lo < hi) { // first block with a prefix > value
+            int mid = (lo + hi) >>> 1;
+            if (prefixes[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int i = lo - 1;
+        if (i < 0) {
+            return -1;
+        }
+        int shift = levels[i] + 1;
+        if (shift < 64 && ((value ^ prefixes[i]) >>> shift) != 0L) { // beyond that block
+            return -ranks[i + 1] - 1;
+        }
+        int idx = Arrays.binarySearch(loadBlock(i), 0, ranks[i + 1] - ranks[i], value);
+        return idx >= 0 ? ranks[i] + idx : idx - ranks[i];
+    }
+
+    private long[] loadBlock(int i) throws IOException {
+        if (i != blockIndex) {
+            source.seekToBit(offsets[i]);
+            source.decodeUniqueSortedArrayIteratively(block, 0, ranks[i + 1] - ranks[i], levels[i], prefixes[i]);
+            blockIndex = i;
+        }
+        return block;
+    }
+}
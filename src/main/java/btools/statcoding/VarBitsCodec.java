@@ -0,0 +1,79 @@
+package btools.statcoding;
+
+import java.io.IOException;
+
+/**
+ * A VarBitsCodec encodes and decodes values in the same format as
+ * {@link BitOutputStream#encodeUnsignedVarBits(long, int)} or
+ * {@link BitOutputStream#encodeSignedVarBits(long, int)} (and their decoding
+ * twins), but for a fixed {@code noisyBits} setting with the parameter checks
+ * done and the decoding lookup table resolved upfront.
+ * <br><br>
+ * Instances are immutable and can be shared.
+ */
+public final class VarBitsCodec {
+
+    private final int noisyBits;
+    private final boolean signed;
+    private final int[] lookupTable; // for short codes, may be null
+
+    /**
+     * Construct a VarBitsCodec.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param signed    true for the signed flavor, false for the unsigned
+     */
+    public VarBitsCodec(int noisyBits, boolean signed) {
+        if (noisyBits < 0 || noisyBits > 63) {
+            throw new IllegalArgumentException("noisyBits out of rangs (0..63): " + noisyBits);
+        }
+        this.noisyBits = noisyBits;
+        this.signed = signed;
+        lookupTable = VarBitsTable.getEntries(noisyBits, signed);
+    }
+
+    /**
+     * Get the number of lower bits considered noisy.
+     *
+     * @return the noisyBits setting
+     */
+    public int getNoisyBits() {
+        return noisyBits;
+    }
+
+    /**
+     * Tell whether this codec uses the signed flavor.
+     *
+     * @return true for the signed flavor, false for the unsigned
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /**
+     * Encode a value.
+     *
+     * @param bos   the bit stream to encode to
+     * @param value the value to encode (non-negative for the unsigned flavor)
+     */
+    public void encode(BitOutputStream bos, long value) throws IOException {
+        if (signed) {
+            bos.writeSignedVarBits(value, noisyBits);
+        } else {
+            if (value < 0L) {
+                throw new IllegalArgumentException("unsigned VarBitsCodec expects non-negative value but is: " + value);
+            }
+            bos.writeUnsignedVarBits(value, noisyBits);
+        }
+    }
+
+    /**
+     * Decode a value.
+     *
+     * @param bis the bit stream to decode from
+     * @return the decoded value
+     */
+    public long decode(BitInputStream bis) throws IOException {
+        return signed ? bis.readSignedVarBits(noisyBits, lookupTable) : bis.readUnsignedVarBits(noisyBits, lookupTable);
+    }
+}
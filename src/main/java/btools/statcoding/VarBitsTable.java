@@ -0,0 +1,77 @@
+package btools.statcoding;
+
+/**
+ * Lookup table for decoding short "Exponential Golomb" codes as written by
+ * {@link BitOutputStream#encodeUnsignedVarBits(long,int)} and
+ * {@link BitOutputStream#encodeSignedVarBits(long,int)} with a single lookup.
+ * <br><br>
+ * The table is indexed by the next {@code LOOKUP_BITS} bits of the stream. Each
+ * entry holds the decoded value (upper 24 bits) and the code length (lower 8
+ * bits), or is 0 if the code is longer than {@code LOOKUP_BITS}.
+ * <br><br>
+ * Tables are immutable and created lazily, once per noisyBits setting.
+ */
+final class VarBitsTable {
+
+    static final int LOOKUP_BITS = 12;
+
+    private static final VarBitsTable[] unsignedTables = new VarBitsTable[LOOKUP_BITS];
+    private static final VarBitsTable[] signedTables = new VarBitsTable[LOOKUP_BITS];
+
+    final int[] entries;
+
+    /**
+     * Get the table entries for the given noisyBits.
+     *
+     * @param noisyBits the number of lower bits considered noisy
+     * @param signed    true for the signed code flavor
+     * @return the table entries or null if no code fits into a lookup
+     */
+    static int[] getEntries(int noisyBits, boolean signed) {
+        if (noisyBits >= LOOKUP_BITS) {
+            return null;
+        }
+        VarBitsTable[] tables = signed ? signedTables : unsignedTables;
+        VarBitsTable table = tables[noisyBits];
+        if (table == null) { // racy init is fine, tables are immutable
+            table = new VarBitsTable(noisyBits, signed);
+            tables[noisyBits] = table;
+        }
+        return table.entries;
+    }
+
+    private VarBitsTable(int noisyBits, boolean signed) {
+        entries = new int[1 << LOOKUP_BITS];
+        long half = noisyBits == 0 ? 0L : 1L << (noisyBits - 1);
+        for (int i = 0; i < entries.length; i++) {
+            long word = ((long) i) << (64 - LOOKUP_BITS);
+            long value;
+            int nBits;
+            if (signed) {
+                int n = Long.numberOfLeadingZeros(word << 1);
+                nBits = word < 0L ? noisyBits + 1 : 2 * n + noisyBits + 3;
+                if (nBits > LOOKUP_BITS) {
+                    continue;
+                }
+                if (word < 0L) { // central: 1-bit + noisy bits
+                    value = ((word << 1) >>> 1 >>> (63 - noisyBits)) - half;
+                } else { // 0-bit + n zeros + 1-bit + n-bit suffix + noisy bits + sign bit
+                    long w = (word << (n + 2)) >>> (63 - (n + noisyBits));
+                    long lv = (1L << n) + (w >>> (noisyBits + 1));
+                    if ((w & 1L) != 0L) {
+                        lv = -lv;
+                    }
+                    value = ((lv << noisyBits) | ((w >>> 1) & ((1L << noisyBits) - 1L))) - half;
+                }
+            } else {
+                int n = Long.numberOfLeadingZeros(word);
+                nBits = 2 * n + 1 + noisyBits;
+                if (nBits > LOOKUP_BITS) {
+                    continue;
+                }
+                value = ((word << n) >>> (64 - (n + 1 + noisyBits))) - (1L << noisyBits);
+            }
+            entries[i] = (int) (value << 8) | nBits;
+        }
+    }
+}
@@ -18,8 +18,18 @@ public final class ACContextDecoder {
     // The underlying decoder
     private ArithmeticDecoder decoder;
 
-    private long[] stats;
-    private long[] idx2symbol;
+    // the frequency table and the symbols, used up to size
+    private long[] stats = new long[8];
+    private long[] idx2symbol = new long[8];
+    private int size;
+
+    /**
+     * Reset this decoder to the state before init, clearing the statistics.
+     * The internal tables are kept, so steady-state re-use does not allocate.
+     */
+    public void reset() {
+        size = 0;
+    }
 
     public void init(ArithmeticDecoder decoder) throws IOException {
 
@@ -28,27 +38,29 @@ public final class ACContextDecoder {
         BitInputStream bis = decoder.getInputStream();
 
         // decode statistics
-        int size = (int) bis.decodeUnsignedVarBits(0);
-        if (size > 1) { // need no stats for size = 1
+        size = (int) bis.decodeUnsignedVarBits(0);
+        if (stats.length < size) {
             stats = new long[size];
+            idx2symbol = new long[size];
+        }
+        if (size > 1) { // need no stats for size = 1
             bis.decodeUniqueSortedArray(stats, 0, size);
         }
         if (size > 0) {
-            idx2symbol = new long[size];
             bis.decodeUniqueSortedArray(idx2symbol, 0, size);
         }
     }
 
     public long read() throws IOException {
 
-        if (idx2symbol == null) {
+        if (size == 0) {
             throw new IllegalArgumentException("cannot read (no symbols)");
         }
-        if (stats == null) {
+        if (size == 1) {
             return idx2symbol[0];
         }
 
-        int idx = decoder.read(stats);
+        int idx = decoder.read(stats, size);
         return idx2symbol[idx];
     }
 }
@@ -1,7 +1,7 @@
 package btools.statcoding.arithmetic;
 
 import java.io.IOException;
-import java.util.*;
+import java.util.Arrays;
 
 import btools.statcoding.BitOutputStream;
 
@@ -23,29 +23,50 @@ public final class ACContextEncoder {
     // The underlying encoder
     private ArithmeticEncoder encoder;
 
-    private final TreeMap<Integer, long[]> frequencies = new TreeMap<>();
+    // the symbols seen in pass 1, in an open-addressing hash table:
+    // slot -> index + 1 (0 = empty)
+    private int[] slots = new int[16];
+    private int shift = 32 - 4;
+    private int size;
+    private int[] symbols = new int[8];
+    private long[] frequencies = new long[8];
+    private int[] indexes = new int[8]; // index in the frequency table of pass 2
 
-    private long[] stats;
+    // the frequency table and the symbols in ascending order, used up to size
+    private long[] stats = new long[8];
+    private long[] idx2symbol = new long[8];
     private int pass;
 
+    /**
+     * Reset this encoder to the state before pass 1, clearing the statistics.
+     * The internal tables are kept, so steady-state re-use does not allocate.
+     */
+    public void reset() {
+        Arrays.fill(slots, 0);
+        size = 0;
+        pass = 0;
+    }
+
     public void init(ArithmeticEncoder encoder) throws IOException {
 
         this.encoder = encoder;
 
         if (++pass == 2) {
-            // prepare frequency table
-            int size = frequencies.size();
-            stats = new long[size];
-            long[] idx2symbol = new long[size];
-            int idx = 0;
-            for (Integer iSymbol : frequencies.keySet()) {
-                long[] freq = frequencies.get(iSymbol);
-                stats[idx] = freq[0];
-                freq[1] = idx;
-                idx2symbol[idx] = iSymbol;
-                idx++;
+            // prepare frequency table, ordered by symbol
+            if (stats.length < size) {
+                stats = new long[symbols.length];
+                idx2symbol = new long[symbols.length];
+            }
+            for (int i = 0; i < size; i++) {
+                idx2symbol[i] = symbols[i];
             }
-            encoder.createStatsFromFrequencies(stats);
+            Arrays.sort(idx2symbol, 0, size);
+            for (int idx = 0; idx < size; idx++) {
+                int i = indexOf((int) idx2symbol[idx]);
+                stats[idx] = frequencies[i];
+                indexes[i] = idx;
+            }
+            encoder.createStatsFromFrequencies(stats, size);
             BitOutputStream bos = encoder.getOutputStream();
 
             // encode statistics
@@ -58,18 +79,70 @@ public final class ACContextEncoder {
     }
 
     public void write(int symbol) throws IOException {
-        long[] current = frequencies.get(symbol);
         if (pass < 2) {
-            if (current == null) {
-                current = new long[2]; // [frequency, index]
-                frequencies.put(symbol, current);
-            }
-            current[0]++;
+            int i = indexOrInsert(symbol); // may grow the arrays
+            frequencies[i]++;
         } else {
-            if (current == null) {
+            int i = indexOf(symbol);
+            if (i < 0) {
                 throw new IllegalArgumentException("symbol " + symbol + " is unknown from pass1");
             }
-            encoder.write(stats, (int) current[1]);
+            encoder.write(stats, size, indexes[i]);
+        }
+    }
+
+    private int slot(int symbol) {
+        return (symbol * 0x9E3779B9) >>> shift;
+    }
+
+    private int indexOf(int symbol) {
+        int mask = slots.length - 1;
+        for (int s = slot(symbol);; s = (s + 1) & mask) {
+            int i = slots[s] - 1;
+            if (i < 0 || symbols[i] == symbol) {
+                return i;
+            }
+        }
+    }
+
+    private int indexOrInsert(int symbol) {
+        int mask = slots.length - 1;
+        int s = slot(symbol);
+        for (;; s = (s + 1) & mask) {
+            int i = slots[s] - 1;
+            if (i < 0) {
+                break;
+            }
+            if (symbols[i] == symbol) {
+                return i;
+            }
+        }
+        if (size == symbols.length) {
+            int newLength = 2 * size;
+            symbols = Arrays.copyOf(symbols, newLength);
+            frequencies = Arrays.copyOf(frequencies, newLength);
+            indexes = Arrays.copyOf(indexes, newLength);
+        }
+        int i = size++;
+        symbols[i] = symbol;
+        frequencies[i] = 0L;
+        slots[s] = i + 1;
+        if (2 * size > slots.length) { // keep the load factor <= 0.5
+            rehash();
+        }
+        return i;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        shift--;
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int s = slot(symbols[i]);
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = i + 1;
         }
     }
 }
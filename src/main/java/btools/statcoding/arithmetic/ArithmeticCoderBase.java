@@ -79,6 +79,13 @@ public abstract class ArithmeticCoderBase {
         maximumTotal = Math.min(Long.MAX_VALUE / fullRange, minimumRange);
         stateMask = fullRange - 1;
 
+        resetRange();
+    }
+
+    /**
+     * Re-initializes the code range, to start a new coding process.
+     */
+    protected final void resetRange() {
         low = 0;
         high = stateMask;
     }
@@ -110,6 +117,19 @@ public abstract class ArithmeticCoderBase {
      *                                  frequency table's total is too large
      */
     protected void update(long[] stats, int symbol) throws IOException {
+        update(stats, stats.length, symbol);
+    }
+
+    /**
+     * Same as {@link #update(long[], int)}, but using only the first
+     * {@code size} entries of the frequency table, so a table can be re-used
+     * for a varying number of symbols.
+     *
+     * @param stats  the (integrated) frequency table to use
+     * @param size   the number of symbols in the table
+     * @param symbol the symbol that was processed
+     */
+    protected void update(long[] stats, int size, int symbol) throws IOException {
         // State check
         if (low >= high || (low & stateMask) != low || (high & stateMask) != high)
             throw new AssertionError("Low or high out of range");
@@ -118,7 +138,7 @@ public abstract class ArithmeticCoderBase {
             throw new AssertionError("Range out of range");
 
         // Frequency table values check
-        long total = stats[stats.length - 1];
+        long total = stats[size - 1];
         long symLow = symbol == 0 ? 0L : stats[symbol - 1];
         long symHigh = stats[symbol];
         if (symLow == symHigh)
@@ -148,25 +168,36 @@ public abstract class ArithmeticCoderBase {
     }
 
     public void createStatsFromFrequencies(long[] values) {
-        scaleDownFrequencies(values);
+        createStatsFromFrequencies(values, values.length);
+    }
+
+    /**
+     * Same as {@link #createStatsFromFrequencies(long[])}, but for the first
+     * {@code size} entries of the array only.
+     *
+     * @param values the frequencies, replaced by the (integrated) frequency table
+     * @param size   the number of symbols
+     */
+    public void createStatsFromFrequencies(long[] values, int size) {
+        scaleDownFrequencies(values, size);
         long sum = 0L;
-        for (int i = 0; i < values.length; i++) {
+        for (int i = 0; i < size; i++) {
             sum += values[i];
             values[i] = sum;
         }
     }
 
-    private void scaleDownFrequencies(long[] values) {
+    private void scaleDownFrequencies(long[] values, int size) {
         for(;;) {
             // just count
             long total = 0L;
-            for (long v : values) {
-                total += v;
+            for (int i = 0; i < size; i++) {
+                total += values[i];
             }
             if ( total <= maximumTotal ) {
                 return;
             }
-            for (int i = 0; i < values.length; i++) {
+            for (int i = 0; i < size; i++) {
                 values[i] = (values[i]+1) >>> 1;
             }
          }
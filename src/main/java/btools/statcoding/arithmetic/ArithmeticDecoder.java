@@ -15,7 +15,7 @@ import btools.statcoding.BitInputStream;
 public final class ArithmeticDecoder extends ArithmeticCoderBase {
 
     // The underlying bit input stream
-    private final BitInputStream input;
+    private BitInputStream input;
 
     // The current raw code bits being buffered, which is always in the range [low,
     // high].
@@ -33,6 +33,19 @@ public final class ArithmeticDecoder extends ArithmeticCoderBase {
         input = in;
     }
 
+    /**
+     * Resets this decoder to start a new decoding process on the specified bit
+     * input stream, so it can be re-used instead of creating a new instance.
+     * 
+     * @param in      the bit input stream to read from
+     */
+    public void reset(BitInputStream in) {
+        input = in;
+        code = 0L;
+        initialized = false;
+        resetRange();
+    }
+
     public BitInputStream getInputStream() {
         return input;
     }
@@ -47,6 +60,18 @@ public final class ArithmeticDecoder extends ArithmeticCoderBase {
      * @throws IOException              if an I/O exception occurred
      */
     public int read(long[] stats) throws IOException {
+        return read(stats, stats.length);
+    }
+
+    /**
+     * Same as {@link #read(long[])}, but using only the first {@code size}
+     * entries of the frequency table.
+     * 
+     * @param stats the (integrated) frequency table to use
+     * @param size  the number of symbols in the table
+     * @return the next symbol
+     */
+    public int read(long[] stats, int size) throws IOException {
 
         if (!initialized) { // check needs init
             initialized = true;
@@ -56,7 +81,7 @@ public final class ArithmeticDecoder extends ArithmeticCoderBase {
         }
 
         // Translate from coding range scale to frequency table scale
-        long total = stats[stats.length - 1];
+        long total = stats[size - 1];
 
         if (total > maximumTotal)
             throw new IllegalArgumentException("Cannot decode symbol because total is too large");
@@ -70,7 +95,7 @@ public final class ArithmeticDecoder extends ArithmeticCoderBase {
 
         // A kind of binary search. Find last symbol with stats[symbol-1] <= value.
         int start = 0;
-        int end = stats.length;
+        int end = size;
         while (end - start > 1) {
             int middle = (start + end) >>> 1;
             long middleLow = middle == 0 ? 0L : stats[middle - 1];
@@ -89,7 +114,7 @@ public final class ArithmeticDecoder extends ArithmeticCoderBase {
         if (!(symLow * range / total <= offset && offset < symHigh * range / total))
             throw new AssertionError();
 
-        update(stats, symbol);
+        update(stats, size, symbol);
 
         if (!(low <= code && code <= high))
             throw new AssertionError("Code out of range");
@@ -21,7 +21,7 @@ import btools.statcoding.BitOutputStream;
 public final class ArithmeticEncoder extends ArithmeticCoderBase {
 
     // The underlying bit output stream (not null).
-    private final BitOutputStream output;
+    private BitOutputStream output;
 
     // Number of saved underflow bits.
     private long numUnderflow;
@@ -37,6 +37,19 @@ public final class ArithmeticEncoder extends ArithmeticCoderBase {
         output = out;
     }
 
+    /**
+     * Resets this encoder to start a new coding process on the specified bit
+     * stream, so it can be re-used instead of creating a new instance.
+     * 
+     * @param out     the bit output stream to write to
+     */
+    public void reset(BitOutputStream out) {
+        output = out;
+        numUnderflow = 0L;
+        symbolsCoded = false;
+        resetRange();
+    }
+
     public BitOutputStream getOutputStream() {
         return output;
     }
@@ -52,7 +65,19 @@ public final class ArithmeticEncoder extends ArithmeticCoderBase {
      * @throws IOException              if an I/O exception occurred
      */
     public void write(long[] stats, int symbol) throws IOException {
-        update(stats, symbol);
+        write(stats, stats.length, symbol);
+    }
+
+    /**
+     * Same as {@link #write(long[], int)}, but using only the first {@code size}
+     * entries of the frequency table.
+     * 
+     * @param stats  the (integrated) frequency table to use
+     * @param size   the number of symbols in the table
+     * @param symbol the symbol to encode
+     */
+    public void write(long[] stats, int size, int symbol) throws IOException {
+        update(stats, size, symbol);
         symbolsCoded = true;
     }
 
@@ -17,14 +17,37 @@ public class RlA2Decoder {
     private ArithmeticDecoder aDecoder;
     private static final long rleEscape = 0L;
 
+    /**
+     * Reset this decoder to the state before init, so it can be re-used
+     * for decoding another record. The context decoders are kept and
+     * re-used by the next init if the record has the same maxValue.
+     */
+    public void reset() {
+        if (decoders != null) {
+            for (ACContextDecoder decoder : decoders) {
+                decoder.reset();
+            }
+        }
+        repCount = 0;
+        lastValue = 0L;
+    }
+
     public void init(BitInputStream bis) throws IOException {
         long maxValue = bis.decodeUnsignedVarBits(0);
         int n = (int) (maxValue) + 2;
-        aDecoder = new ArithmeticDecoder(bis);
-        decoders = new ACContextDecoder[n];
-        for (int i = 0; i < n; i++) {
-            decoders[i] = new ACContextDecoder();
-            decoders[i].init(aDecoder);
+        if (aDecoder == null) {
+            aDecoder = new ArithmeticDecoder(bis);
+        } else {
+            aDecoder.reset(bis);
+        }
+        if (decoders == null || decoders.length != n) {
+            decoders = new ACContextDecoder[n];
+            for (int i = 0; i < n; i++) {
+                decoders[i] = new ACContextDecoder();
+            }
+        }
+        for (ACContextDecoder decoder : decoders) {
+            decoder.init(aDecoder);
         }
         repCount = 0;
         lastValue = 0L;
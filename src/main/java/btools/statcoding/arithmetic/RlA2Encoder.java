@@ -38,10 +38,25 @@ public class RlA2Encoder {
         }
     }
 
+    /**
+     * Reset this encoder to the state before pass 1, so it can be re-used
+     * for another 2-pass encoding with the same parameters.
+     */
+    public void reset() {
+        for (ACContextEncoder encoder : encoders) {
+            encoder.reset();
+        }
+        pass = 0;
+    }
+
     public void init(BitOutputStream bos) throws IOException {
         if (++pass == 2) {
             bos.encodeUnsignedVarBits(maxValue, 0);
-            aEncoder = new ArithmeticEncoder(bos);
+            if (aEncoder == null) {
+                aEncoder = new ArithmeticEncoder(bos);
+            } else {
+                aEncoder.reset(bos);
+            }
         }
         for (ACContextEncoder encoder: encoders) {
             encoder.init(aEncoder);
@@ -77,7 +92,7 @@ public class RlA2Encoder {
 
     public void finish() throws IOException {
         flushLastValue();
-        if (aEncoder != null) {
+        if (pass >= 2) {
             aEncoder.finish();
         }
     }
@@ -1,6 +1,7 @@
 package btools.statcoding.huffman;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import btools.statcoding.BitInputStream;
 
@@ -9,6 +10,11 @@ import btools.statcoding.BitInputStream;
  * <br>
  * Uses a lookup-table of configurable size to speed up decoding. <br>
  * <br>
+ * In canonical mode (see {@link HuffmanEncoder#HuffmanEncoder(boolean)}) the
+ * lookup-table is built from the code lengths without building a tree, and
+ * codes longer than the lookup-table are decoded by comparing against the
+ * first code of each length instead of walking tree nodes. <br>
+ * <br>
  * This is an abstract class because the method decodeObjectFromStream must be
  * implemented to decode the leafs of the huffman tree from the input stream.
  */
@@ -16,10 +22,40 @@ public abstract class HuffmanDecoder<V> {
 
     protected BitInputStream bis;
 
+    private static final Object LONG_CODE = new Object(); // marker for canonical codes > lookupBits
+
     private int lookupBits;
     private Object[] subtrees;
     private int[] lengths;
 
+    private final boolean canonical;
+
+    // canonical mode: the symbols in canonical order, and per code length the
+    // first code, the index of its symbol and the number of codes
+    private Object[] canonicalSymbols = new Object[0];
+    private long[] firstCodes;
+    private int[] firstIndexes;
+    private int[] counts;
+    private int maxBits;
+
+    /**
+     * Construct a huffman decoder that decodes the tree shape.
+     */
+    public HuffmanDecoder() {
+        this(false);
+    }
+
+    /**
+     * Construct a huffman decoder, optionally in canonical mode. The mode must be
+     * the same the encoder was constructed with.
+     *
+     * @param canonical true to decode canonical codes from transmitted code
+     *                  lengths
+     */
+    public HuffmanDecoder(boolean canonical) {
+        this.canonical = canonical;
+    }
+
     /**
      * Decodes an object from the underlying input stream. The object returned is
      * actually not a new instance each time, but a leaf of the tree decoded during
@@ -30,6 +66,9 @@ public abstract class HuffmanDecoder<V> {
     public final V decodeObject() throws IOException {
         int idx = bis.decodeLookupIndex(lengths,lookupBits);
         Object node = subtrees[idx];
+        if (node == LONG_CODE) {
+            node = decodeLongCode(idx);
+        }
         while (node instanceof TreeNode) {
             TreeNode tn = (TreeNode) node;
             boolean nextBit = bis.decodeBit();
@@ -38,6 +77,28 @@ public abstract class HuffmanDecoder<V> {
         return (V) node;
     }
 
+    // continue a canonical code with the given prefix of lookupBits bits
+    private Object decodeLongCode(long code) throws IOException {
+        for (int bits = lookupBits + 1; bits <= maxBits; bits++) {
+            code = (code << 1) | (bis.decodeBit() ? 1L : 0L);
+            long d = code - firstCodes[bits]; // codes of that length are first..first+count-1
+            if (d < counts[bits]) {
+                return canonicalSymbols[firstIndexes[bits] + (int) d];
+            }
+        }
+        throw new IOException("invalid huffman code: longer than " + maxBits + " bits");
+    }
+
+    /**
+     * Reset this decoder, so that the next call to
+     * {@link #init(BitInputStream, int)} decodes a new tree instead of just
+     * switching the bit stream. The lookup table is re-used if its size does not
+     * change.
+     */
+    public void reset() {
+        bis = null;
+    }
+
     /**
      * Initialize this huffman decoder. That decodes the tree from the underlying
      * input stream and builds a lookup table of the given size.<br>
@@ -62,9 +123,15 @@ public abstract class HuffmanDecoder<V> {
         this.lookupBits = lookupBits;
         boolean hasSymbols = bis.decodeBit();
         if (hasSymbols) {
-            subtrees = new Object[1 << lookupBits];
-            lengths = new int[1 << lookupBits];
-            decodeTree(0, 0);
+            if (subtrees == null || subtrees.length != 1 << lookupBits) {
+                subtrees = new Object[1 << lookupBits];
+                lengths = new int[1 << lookupBits];
+            }
+            if (canonical) {
+                decodeCanonical();
+            } else {
+                decodeTree(0, 0);
+            }
         }
     }
 
@@ -76,6 +143,55 @@ public abstract class HuffmanDecoder<V> {
      */
     protected abstract V decodeObjectFromStream() throws IOException;
 
+    private void decodeCanonical() throws IOException {
+
+        // decode the number of codes per length, see HuffmanEncoder
+        maxBits = (int) bis.decodeUnsignedVarBits(0);
+        if (maxBits > 64) {
+            throw new IllegalArgumentException("code length out of range: " + maxBits);
+        }
+        if (counts == null || counts.length < maxBits + 1) {
+            counts = new int[65];
+            firstCodes = new long[65];
+            firstIndexes = new int[65];
+        }
+        long slots = 1L;
+        int size = 0;
+        long code = 0L;
+        for (int bits = 0; bits <= maxBits; bits++) {
+            int count = (int) (bits < maxBits ? bis.decodeBounded(slots - 1) : slots);
+            counts[bits] = count;
+            firstCodes[bits] = code;
+            firstIndexes[bits] = size;
+            size += count;
+            slots = 2L * (slots - count);
+            code = (code + count) << 1;
+        }
+
+        // decode the symbols and fill the lookup table
+        if (canonicalSymbols.length < size) {
+            canonicalSymbols = new Object[size];
+        }
+        int idx = 0;
+        for (int bits = 0; bits <= maxBits; bits++) {
+            for (int i = 0; i < counts[bits]; i++) {
+                Object symbol = decodeObjectFromStream();
+                canonicalSymbols[idx++] = symbol;
+                long c = firstCodes[bits] + i;
+                if (bits <= lookupBits) {
+                    int start = (int) (c << (lookupBits - bits));
+                    int end = start + (1 << (lookupBits - bits));
+                    Arrays.fill(subtrees, start, end, symbol);
+                    Arrays.fill(lengths, start, end, bits);
+                } else {
+                    int prefix = (int) (c >>> (bits - lookupBits));
+                    subtrees[prefix] = LONG_CODE;
+                    lengths[prefix] = lookupBits;
+                }
+            }
+        }
+    }
+
     private Object decodeTree(int offset, int bits) throws IOException {
         boolean isNode = bis.decodeBit();
         int step = bits <= lookupBits ? 1 << (lookupBits-bits) : 0;
@@ -1,8 +1,11 @@
 package btools.statcoding.huffman;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.PriorityQueue;
 
 import btools.statcoding.BitOutputStream;
@@ -13,6 +16,18 @@ import btools.statcoding.BitOutputStream;
  * It detects identical objects and sorts them into a huffman-tree according to
  * their frequencies. <br>
  * <br>
+ * In canonical mode, instead of the tree shape only the code lengths are
+ * transmitted (as the number of symbols per length, followed by the symbols
+ * ordered by length) and the codes are assigned canonically. That gives a
+ * smaller header for large alphabets and allows the decoder to build its
+ * lookup table without building a tree, see
+ * {@link HuffmanDecoder#HuffmanDecoder(boolean)}. <br>
+ * <br>
+ * Optionally, the code length can be limited (using the package-merge
+ * algorithm to find the optimal length-limited code). If the limit is not
+ * above the lookupBits of the decoder, every symbol is decoded by a single
+ * table lookup. <br>
+ * <br>
  * Adapted for 2-pass encoding (pass 1: statistic collection, pass 2: encoding).
  */
 public abstract class HuffmanEncoder<V> {
@@ -20,8 +35,69 @@ public abstract class HuffmanEncoder<V> {
     protected BitOutputStream bos;
 
     private final HashMap<Object, TreeNode> symbols = new HashMap<>();
+
+    // tree nodes re-used after a reset, for the leafs and for the inner nodes
+    private final List<TreeNode> leafNodes = new ArrayList<>();
+    private int leafNodeCount;
+    private final List<TreeNode> innerNodes = new ArrayList<>();
+    private int innerNodeCount;
+
+    // re-used while building the tree
+    private final PriorityQueue<TreeNode> queue = new PriorityQueue<>(TreeNode.COMPARATOR);
+    private final List<TreeNode> leafs = new ArrayList<>();
+    private final int[] lengthCounts = new int[65];
     private int pass;
     private long nextTagValueSetId;
+    private final boolean canonical;
+    private final int maxCodeLength;
+
+    /**
+     * Construct a huffman encoder that encodes the tree shape.
+     */
+    public HuffmanEncoder() {
+        this(false);
+    }
+
+    /**
+     * Construct a huffman encoder, optionally in canonical mode. The decoder must
+     * be constructed with the same mode.
+     *
+     * @param canonical true to transmit only the code lengths and use canonical
+     *                  codes
+     */
+    public HuffmanEncoder(boolean canonical) {
+        this(canonical, 64);
+    }
+
+    /**
+     * Construct a huffman encoder with a limit on the code length. The limit does
+     * not affect the format, so the decoder is constructed just with the mode.
+     *
+     * @param canonical     true to transmit only the code lengths and use
+     *                      canonical codes
+     * @param maxCodeLength the maximum code length (1..64), the number of
+     *                      distinct symbols must not exceed 2^maxCodeLength
+     */
+    public HuffmanEncoder(boolean canonical, int maxCodeLength) {
+        if (maxCodeLength < 1 || maxCodeLength > 64) {
+            throw new IllegalArgumentException("maxCodeLength out of range ( 1..64 ): " + maxCodeLength);
+        }
+        this.canonical = canonical;
+        this.maxCodeLength = maxCodeLength;
+    }
+
+    /**
+     * Reset this encoder to the state before pass 1, clearing the statistics, so
+     * it can be re-used for another 2-pass encoding instead of creating a new
+     * instance. The tree nodes are re-used.
+     */
+    public void reset() {
+        symbols.clear();
+        leafNodeCount = 0;
+        pass = 0;
+        nextTagValueSetId = 0L;
+        bos = null;
+    }
 
     /**
      * Encode an object. In pass 1 this gathers statistics, in pass 2 this actually
@@ -38,7 +114,7 @@ public abstract class HuffmanEncoder<V> {
             bos.encodeBits(tn.bits, tn.code);
         } else {
             if (tn == null) {
-                tn = new TreeNode(nextTagValueSetId++);
+                tn = newLeafNode();
                 tn.obj = obj;
                 symbols.put(obj, tn);
             }
@@ -60,25 +136,212 @@ public abstract class HuffmanEncoder<V> {
         pass = Math.min(pass + 1, 2);
         if (pass == 2) { // encode the dictionary in pass 2
 
-            boolean hasSymbols = !symbols.isEmpty();
+            // check the limit before writing anything
+            int n = symbols.size();
+            if (maxCodeLength < 31 && n > 1 << maxCodeLength) {
+                throw new IllegalArgumentException("too many symbols (" + n + ") for maxCodeLength=" + maxCodeLength);
+            }
+            boolean hasSymbols = n > 0;
             bos.encodeBit(hasSymbols);
             if (hasSymbols) {
-                PriorityQueue<TreeNode> queue = new PriorityQueue<>(2 * symbols.size(),
-                        new TreeNode.FrequencyComparator());
+                queue.clear();
                 queue.addAll(symbols.values());
+                innerNodeCount = 0;
                 while (queue.size() > 1) {
-                    TreeNode node = new TreeNode(nextTagValueSetId++);
+                    TreeNode node = newInnerNode();
                     node.child1 = queue.poll();
                     node.child2 = queue.poll();
                     node.frequency = node.child1.frequency + node.child2.frequency;
                     queue.add(node);
                 }
                 TreeNode root = queue.poll();
-                encodeTree(root, 0, 0);
+
+                // collect the leafs, with their code lengths, in tree order
+                leafs.clear();
+                int maxBits = collectLeafs(root, 0, leafs);
+                if (maxBits > maxCodeLength) {
+                    limitCodeLengths(leafs);
+                    if (!canonical) {
+                        root = buildCanonicalTree(leafs);
+                    }
+                }
+                if (canonical) {
+                    encodeCanonical(leafs);
+                } else {
+                    encodeTree(root, 0, 0);
+                }
             }
         }
     }
 
+    // get a leaf node, re-using those from before a reset
+    private TreeNode newLeafNode() {
+        TreeNode node;
+        if (leafNodeCount < leafNodes.size()) {
+            node = leafNodes.get(leafNodeCount);
+            node.id = nextTagValueSetId++;
+            node.frequency = 0L;
+        } else {
+            node = new TreeNode(nextTagValueSetId++);
+            leafNodes.add(node);
+        }
+        leafNodeCount++;
+        return node;
+    }
+
+    // get an inner tree node, re-using those of earlier trees
+    private TreeNode newInnerNode() {
+        TreeNode node;
+        if (innerNodeCount < innerNodes.size()) {
+            node = innerNodes.get(innerNodeCount);
+            node.id = nextTagValueSetId++;
+            node.child1 = null;
+            node.child2 = null;
+        } else {
+            node = new TreeNode(nextTagValueSetId++);
+            innerNodes.add(node);
+        }
+        innerNodeCount++;
+        return node;
+    }
+
+    // canonical order: by code length, then by id (order of first appearance)
+    private static void sortCanonical(List<TreeNode> leafs) {
+        leafs.sort((tn1, tn2) -> tn1.bits != tn2.bits ? Integer.compare(tn1.bits, tn2.bits)
+                : Long.compare(tn1.id, tn2.id));
+    }
+
+    private void encodeCanonical(List<TreeNode> leafs) throws IOException {
+        sortCanonical(leafs);
+        int maxBits = leafs.get(leafs.size() - 1).bits;
+        int[] counts = lengthCounts;
+        Arrays.fill(counts, 0);
+        for (TreeNode tn : leafs) {
+            counts[tn.bits]++;
+        }
+
+        // encode the counts per length. The number of free codes is known
+        // at each length, and on the last length all of them are used.
+        bos.encodeUnsignedVarBits(maxBits, 0);
+        long slots = 2L;
+        for (int bits = 1; bits < maxBits; bits++) {
+            bos.encodeBounded(slots - 1, counts[bits]);
+            slots = 2L * (slots - counts[bits]);
+        }
+
+        // assign the codes and encode the symbols
+        long code = 0L;
+        int bits = 0;
+        for (TreeNode tn : leafs) {
+            code <<= tn.bits - bits;
+            bits = tn.bits;
+            tn.code = code++;
+            @SuppressWarnings("unchecked")
+            V obj = (V) tn.obj;
+            encodeObjectToStream(obj);
+        }
+    }
+
+    // returns the maximum code length
+    private int collectLeafs(TreeNode node, int bits, List<TreeNode> leafs) {
+        if (node.child1 != null) {
+            return Math.max(collectLeafs(node.child1, bits + 1, leafs), collectLeafs(node.child2, bits + 1, leafs));
+        }
+        node.bits = bits;
+        leafs.add(node);
+        return bits;
+    }
+
+    // assign optimal code lengths <= maxCodeLength using the package-merge algorithm
+    private void limitCodeLengths(List<TreeNode> leafs) {
+        int n = leafs.size();
+        int maxBits = maxCodeLength; // n <= 2^maxBits is checked by init
+        leafs.sort(TreeNode.COMPARATOR);
+        long[] weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = leafs.get(i).frequency;
+            leafs.get(i).bits = 0;
+        }
+
+        // the list of the lowest level is just the leafs. Each level above merges
+        // the leafs with the packages (pairs) of the list below, remembering which
+        // items are leafs
+        boolean[][] isLeaf = new boolean[maxBits + 1][];
+        isLeaf[maxBits] = new boolean[n];
+        Arrays.fill(isLeaf[maxBits], true);
+        long[] list = weights;
+        for (int level = maxBits - 1; level >= 1; level--) {
+            int packages = list.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] leafFlags = new boolean[merged.length];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < merged.length; k++) {
+                long packageWeight = j < packages ? list[2 * j] + list[2 * j + 1] : Long.MAX_VALUE;
+                if (i < n && weights[i] <= packageWeight) {
+                    merged[k] = weights[i++];
+                    leafFlags[k] = true;
+                } else {
+                    merged[k] = packageWeight;
+                    j++;
+                }
+            }
+            list = merged;
+            isLeaf[level] = leafFlags;
+        }
+
+        // select the 2n-2 lightest items of the top level. Each selected leaf
+        // adds one to its code length, each selected package selects its pair
+        // in the level below. Selected leafs are always the lightest ones.
+        int selected = 2 * n - 2;
+        for (int level = 1; level <= maxBits && selected > 0; level++) {
+            boolean[] leafFlags = isLeaf[level];
+            int leafCount = 0;
+            for (int k = 0; k < selected; k++) {
+                if (leafFlags[k]) {
+                    leafCount++;
+                }
+            }
+            for (int k = 0; k < leafCount; k++) {
+                leafs.get(k).bits++;
+            }
+            selected = 2 * (selected - leafCount);
+        }
+    }
+
+    // build a tree with canonical codes matching the code lengths of the leafs
+    private TreeNode buildCanonicalTree(List<TreeNode> leafs) {
+        sortCanonical(leafs);
+        TreeNode root = newInnerNode();
+        long code = 0L;
+        int bits = 0;
+        for (TreeNode leaf : leafs) {
+            code <<= leaf.bits - bits;
+            bits = leaf.bits;
+            TreeNode node = root;
+            for (int i = bits - 1; i > 0; i--) {
+                boolean bit = ((code >>> i) & 1L) != 0L;
+                TreeNode child = bit ? node.child2 : node.child1;
+                if (child == null) {
+                    child = newInnerNode();
+                    if (bit) {
+                        node.child2 = child;
+                    } else {
+                        node.child1 = child;
+                    }
+                }
+                node = child;
+            }
+            if ((code & 1L) != 0L) {
+                node.child2 = leaf;
+            } else {
+                node.child1 = leaf;
+            }
+            code++;
+        }
+        return root;
+    }
+
     private void encodeTree(TreeNode node, int bits, long code) throws IOException {
         node.bits = bits;
         node.code = code;
@@ -136,6 +399,8 @@ public abstract class HuffmanEncoder<V> {
             this.id = id;
         }
 
+        static final Comparator<TreeNode> COMPARATOR = new FrequencyComparator();
+
         static class FrequencyComparator implements Comparator<TreeNode> {
 
             @Override
@@ -0,0 +1,272 @@
+package btools.statcoding.huffman;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import btools.statcoding.BitInputStream;
+
+/**
+ * Decoder for huffman-encoded long values, specialized to avoid the boxing
+ * and the tree walking of {@link HuffmanDecoder}. <br>
+ * <br>
+ * It decodes the format of {@link HuffmanEncoder} and
+ * {@link LongHuffmanEncoder} using flat lookup tables: the symbols are stored
+ * in a long[] alongside the length table. Codes longer than the lookup bits
+ * are resolved by second-level tables (of up to 8 bits each) instead of a
+ * tree, so every symbol costs one lookup per level and no bit-by-bit decoding.
+ * <br>
+ * <br>
+ * For bulk decoding (see {@link #decodeValues(long[], int, int)}) a second
+ * root table is built that resolves up to 4 short codes per lookup.
+ * <br>
+ * <br>
+ * This is an abstract class because the method decodeValueFromStream must be
+ * implemented to decode the leafs of the huffman tree from the input stream.
+ */
+public abstract class LongHuffmanDecoder {
+
+    private static final int MAX_SUB_BITS = 8;
+
+    protected BitInputStream bis;
+
+    private int lookupBits;
+
+    // the tables: root table at 0, sub-tables behind it
+    private int[] lengths = new int[0]; // bits to consume
+    private long[] symbols = new long[0]; // the decoded value (for leafs)
+    private int[] links = new int[0]; // sub-table (offset << 5 | bits), 0 for leafs
+    private int tableSize;
+
+    // multi-symbol root table for bulk decoding: per entry the number of symbols
+    // (0 = continue in the sub-tables), the total bits and the symbols
+    private static final int MULTI_SYMBOLS = 4;
+    private int[] multiCounts = new int[0];
+    private int[] multiLengths = new int[0];
+    private long[] multiSymbols = new long[0];
+    private boolean multiValid;
+
+    // the tree as decoded from the stream, only used while building the tables
+    private int[] children = new int[0]; // 2 per node, -1 for leafs
+    private int[] depths = new int[0]; // max depth of the subtree below each node
+    private long[] leafValues = new long[0];
+    private int nodeCount;
+
+    /**
+     * Decodes a value from the underlying input stream.
+     *
+     * @return the decoded value
+     */
+    public final long decodeValue() throws IOException {
+        int idx = bis.decodeLookupIndex(lengths, 0, lookupBits);
+        int link;
+        while ((link = links[idx]) != 0) {
+            idx = bis.decodeLookupIndex(lengths, link >>> 5, link & 31);
+        }
+        return symbols[idx];
+    }
+
+    /**
+     * Decodes a number of values from the underlying input stream into an array.
+     * This uses a root table that decodes several short codes with a single
+     * lookup, which is built on the first call after init.
+     *
+     * @param values the array to decode to
+     * @param offset position in this array where to start
+     * @param size   number of values to decode
+     */
+    public final void decodeValues(long[] values, int offset, int size) throws IOException {
+        if (offset < 0 || size < 0 || size > values.length - offset) {
+            throw new IndexOutOfBoundsException("range out of array: " + offset + "/" + size);
+        }
+        if (!multiValid && size > 0) {
+            buildMultiTable();
+        }
+        BitInputStream bis = this.bis;
+        int[] lengths = this.lengths;
+        int[] links = this.links;
+        long[] symbols = this.symbols;
+        int[] multiCounts = this.multiCounts;
+        int[] multiLengths = this.multiLengths;
+        long[] multiSymbols = this.multiSymbols;
+        int lookupBits = this.lookupBits;
+        int i = offset;
+        int end = offset + size;
+        while (end - i >= MULTI_SYMBOLS) {
+            int idx = bis.decodeLookupIndex(multiLengths, 0, lookupBits);
+            int count = multiCounts[idx];
+            if (count == 0) { // the first code continues in the sub-tables
+                int link = links[idx];
+                do {
+                    idx = bis.decodeLookupIndex(lengths, link >>> 5, link & 31);
+                } while ((link = links[idx]) != 0);
+                values[i++] = symbols[idx];
+                continue;
+            }
+            // copy all slots, those beyond count are overwritten later
+            int base = idx * MULTI_SYMBOLS;
+            values[i] = multiSymbols[base];
+            values[i + 1] = multiSymbols[base + 1];
+            values[i + 2] = multiSymbols[base + 2];
+            values[i + 3] = multiSymbols[base + 3];
+            i += count;
+        }
+        while (i < end) { // do not decode beyond the requested size
+            int idx = bis.decodeLookupIndex(lengths, 0, lookupBits);
+            int link;
+            while ((link = links[idx]) != 0) {
+                idx = bis.decodeLookupIndex(lengths, link >>> 5, link & 31);
+            }
+            values[i++] = symbols[idx];
+        }
+    }
+
+    // for each root table entry, collect the leafs whose codes fit completely
+    // into the lookup bits, starting with the leaf of the entry itself
+    private void buildMultiTable() {
+        int rootSize = 1 << lookupBits;
+        if (multiCounts.length != rootSize) {
+            multiCounts = new int[rootSize];
+            multiLengths = new int[rootSize];
+            multiSymbols = new long[rootSize * MULTI_SYMBOLS];
+        }
+        int mask = rootSize - 1;
+        for (int idx = 0; idx < rootSize; idx++) {
+            int bitsUsed = 0;
+            int count = 0;
+            while (count < MULTI_SYMBOLS) {
+                int j = (idx << bitsUsed) & mask;
+                int len = lengths[j];
+                if (links[j] != 0) {
+                    if (count == 0) { // consume the root bits and continue with the link
+                        bitsUsed = len;
+                    }
+                    break;
+                }
+                if (bitsUsed + len > lookupBits) {
+                    break;
+                }
+                multiSymbols[idx * MULTI_SYMBOLS + count++] = symbols[j];
+                bitsUsed += len;
+            }
+            multiCounts[idx] = count;
+            multiLengths[idx] = bitsUsed;
+        }
+        multiValid = true;
+    }
+
+    /**
+     * Initialize this huffman decoder. That decodes the tree from the underlying
+     * input stream and builds lookup tables, with a root table of the given
+     * size.<br>
+     * <br>
+     * Calling init more then once can be used to use a different bit stream for
+     * data decoding, not the one that was used for tree decoding. In that case the
+     * lookupBits parameter is ignored.
+     *
+     * @param bis        the input stream to decode the tree and the symbols from
+     * @param lookupBits use a root table of size 2^lookupBits
+     */
+    public void init(BitInputStream bis, int lookupBits) throws IOException {
+
+        if (this.bis != null) {
+            this.bis = bis;
+            return;
+        }
+        if (lookupBits < 0 || lookupBits > 20) {
+            throw new IllegalArgumentException("lookupBits out of range ( 0..20 ): " + lookupBits);
+        }
+        this.bis = bis;
+        this.lookupBits = lookupBits;
+        multiValid = false;
+        boolean hasSymbols = bis.decodeBit();
+        if (hasSymbols) {
+            nodeCount = 0;
+            decodeTree();
+            tableSize = 0;
+            int root = allocateTable(lookupBits);
+            fillTable(root, lookupBits, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Reset this decoder, so that the next call to
+     * {@link #init(BitInputStream, int)} decodes a new tree instead of just
+     * switching the bit stream. The internal tables are re-used.
+     */
+    public void reset() {
+        bis = null;
+    }
+
+    /**
+     * Decode the values that this huffman decoder operates on from the underlying
+     * bit stream. This method is called while decoding the huffman tree.
+     *
+     * @return the decoded value
+     */
+    protected abstract long decodeValueFromStream() throws IOException;
+
+    // decode the tree in pre-order into the node arrays, returning the node index
+    private int decodeTree() throws IOException {
+        int node = nodeCount++;
+        if (node == depths.length) {
+            int newLength = Math.max(64, 2 * node);
+            children = Arrays.copyOf(children, 2 * newLength);
+            depths = Arrays.copyOf(depths, newLength);
+            leafValues = Arrays.copyOf(leafValues, newLength);
+        }
+        if (bis.decodeBit()) {
+            int child1 = decodeTree();
+            int child2 = decodeTree();
+            children[2 * node] = child1;
+            children[2 * node + 1] = child2;
+            depths[node] = 1 + Math.max(depths[child1], depths[child2]);
+            if (depths[node] > 64) {
+                throw new IllegalArgumentException("huffman tree too deep: " + depths[node]);
+            }
+        } else {
+            children[2 * node] = -1;
+            depths[node] = 0;
+            leafValues[node] = decodeValueFromStream();
+        }
+        return node;
+    }
+
+    // allocate a table of 2^bits entries, returning its offset
+    private int allocateTable(int bits) {
+        int offset = tableSize;
+        tableSize += 1 << bits;
+        if (tableSize > lengths.length) {
+            int newLength = Math.max(tableSize, 2 * lengths.length);
+            lengths = Arrays.copyOf(lengths, newLength);
+            symbols = Arrays.copyOf(symbols, newLength);
+            links = Arrays.copyOf(links, newLength);
+        }
+        return offset;
+    }
+
+    // fill the entries of the table at the given offset for the subtree at the
+    // given node, which is reached by the given code of the given length
+    private void fillTable(int offset, int tableBits, int node, int codeBits, int code) {
+        if (children[2 * node] < 0) { // a leaf: fill all entries starting with that code
+            int shift = tableBits - codeBits;
+            int start = offset + (code << shift);
+            int end = start + (1 << shift);
+            Arrays.fill(lengths, start, end, codeBits);
+            Arrays.fill(symbols, start, end, leafValues[node]);
+            Arrays.fill(links, start, end, 0);
+        } else if (codeBits == tableBits) { // continue in a sub-table
+            int subBits = Math.min(depths[node], MAX_SUB_BITS);
+            int subOffset = allocateTable(subBits);
+            if (subOffset >= 1 << 26) {
+                throw new IllegalArgumentException("huffman tables too large");
+            }
+            int idx = offset + code;
+            lengths[idx] = tableBits;
+            links[idx] = (subOffset << 5) | subBits;
+            fillTable(subOffset, subBits, node, 0, 0);
+        } else {
+            fillTable(offset, tableBits, children[2 * node], codeBits + 1, code << 1);
+            fillTable(offset, tableBits, children[2 * node + 1], codeBits + 1, (code << 1) | 1);
+        }
+    }
+}
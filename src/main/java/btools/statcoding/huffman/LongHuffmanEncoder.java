@@ -0,0 +1,287 @@
+package btools.statcoding.huffman;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import btools.statcoding.BitOutputStream;
+
+/**
+ * Encoder for huffman-encoding long values, specialized to avoid the boxing
+ * and the HashMap lookups of {@link HuffmanEncoder}. <br>
+ * <br>
+ * Symbols are counted in a primitive open-addressing hash table and the
+ * codes are kept in dense arrays indexed by symbol, so encoding does not
+ * allocate anything per symbol. <br>
+ * <br>
+ * The encoded tree (and thus the whole encoding) is identical to that of a
+ * HuffmanEncoder&lt;Long&gt; encoding the leafs the same way, so it can be
+ * decoded by {@link HuffmanDecoder} or {@link LongHuffmanDecoder}. <br>
+ * <br>
+ * Adapted for 2-pass encoding (pass 1: statistic collection, pass 2: encoding).
+ */
+public abstract class LongHuffmanEncoder {
+
+    protected BitOutputStream bos;
+
+    // the hash table: slot -> symbol index + 1 (0 = empty)
+    private int[] slots = new int[64];
+    private int shift = 64 - 6;
+
+    // the symbols in the order first seen
+    private int size;
+    private long[] values = new long[32];
+    private long[] frequencies = new long[32];
+    private int[] codeLengths = new int[32];
+    private long[] codes = new long[32];
+
+    // the tree nodes: 0..size-1 are the leafs, size.. the inner nodes in the
+    // order created. The node index serves as the tie-breaker for equal
+    // frequencies, which gives the same tree as HuffmanEncoder
+    private long[] nodeFrequencies = new long[0];
+    private int[] children = new int[0];
+    private int[] heap = new int[0];
+
+    private int pass;
+
+    /**
+     * Encode a value. In pass 1 this gathers statistics, in pass 2 this actually
+     * writes the huffman code to the underlying output stream.
+     *
+     * @param value the value to encode
+     */
+    public void encodeValue(long value) throws IOException {
+        if (pass == 2) {
+            int idx = indexOf(value);
+            if (idx < 0) {
+                throw new IllegalArgumentException("symbol was not seen in pass 1: " + value);
+            }
+            bos.encodeBits(codeLengths[idx], codes[idx]);
+        } else {
+            int idx = indexOrInsert(value); // may grow the arrays
+            frequencies[idx]++;
+        }
+    }
+
+    /**
+     * Encode a range of an array of values, see {@link #encodeValue(long)}.
+     *
+     * @param values the array holding the values
+     * @param offset position in this array where to start
+     * @param size   number of values to encode
+     */
+    public void encodeValues(long[] values, int offset, int size) throws IOException {
+        if (offset < 0 || size < 0 || size > values.length - offset) {
+            throw new IndexOutOfBoundsException("range out of array: " + offset + "/" + size);
+        }
+        int end = offset + size;
+        if (pass == 2) {
+            for (int i = offset; i < end; i++) {
+                long value = values[i];
+                int idx = indexOf(value);
+                if (idx < 0) {
+                    throw new IllegalArgumentException("symbol was not seen in pass 1: " + value);
+                }
+                bos.encodeBits(codeLengths[idx], codes[idx]);
+            }
+        } else {
+            for (int i = offset; i < end; i++) {
+                int idx = indexOrInsert(values[i]);
+                frequencies[idx]++;
+            }
+        }
+    }
+
+    private int slot(long value) {
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private int indexOf(long value) {
+        int mask = slots.length - 1;
+        for (int s = slot(value);; s = (s + 1) & mask) {
+            int idx = slots[s] - 1;
+            if (idx < 0 || values[idx] == value) {
+                return idx;
+            }
+        }
+    }
+
+    private int indexOrInsert(long value) {
+        int mask = slots.length - 1;
+        int s = slot(value);
+        for (;; s = (s + 1) & mask) {
+            int idx = slots[s] - 1;
+            if (idx < 0) {
+                break;
+            }
+            if (values[idx] == value) {
+                return idx;
+            }
+        }
+        if (size == values.length) {
+            int newLength = 2 * size;
+            values = Arrays.copyOf(values, newLength);
+            frequencies = Arrays.copyOf(frequencies, newLength);
+            codeLengths = Arrays.copyOf(codeLengths, newLength);
+            codes = Arrays.copyOf(codes, newLength);
+        }
+        int idx = size++;
+        values[idx] = value;
+        slots[s] = idx + 1;
+        if (2 * size > slots.length) { // keep the load factor <= 0.5
+            rehash();
+        }
+        return idx;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        shift--;
+        int mask = slots.length - 1;
+        for (int idx = 0; idx < size; idx++) {
+            int s = slot(values[idx]);
+            while (slots[s] != 0) {
+                s = (s + 1) & mask;
+            }
+            slots[s] = idx + 1;
+        }
+    }
+
+    /**
+     * Initialize the encoder. Must be called at the beginning of each of the 2
+     * encoding passes. For pass 1 this only increments the pass-counter (and the
+     * given bit stream is allowed to be null). For pass 2 this encodes the tree and
+     * registers the bit stream for subsequent data encoding. Calling init more then
+     * twice can be used to delegate data encoding to other bit streams.
+     *
+     * @param bos the bit stream to use for encoding tree and data
+     */
+    public void init(BitOutputStream bos) throws IOException {
+        this.bos = bos;
+        pass = Math.min(pass + 1, 2);
+        if (pass == 2) { // encode the dictionary in pass 2
+            bos.encodeBit(size > 0);
+            if (size > 0) {
+                buildTree();
+                encodeTree(2 * size - 2, 0, 0L);
+            }
+        }
+    }
+
+    private void buildTree() {
+        int nodes = 2 * size - 1;
+        if (nodeFrequencies.length < nodes) {
+            nodeFrequencies = new long[nodes];
+            children = new int[2 * nodes];
+            heap = new int[size];
+        }
+        System.arraycopy(frequencies, 0, nodeFrequencies, 0, size);
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            heap[heapSize++] = i;
+            siftUp(heapSize - 1);
+        }
+        for (int node = size; node < nodes; node++) {
+            int child1 = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(0, heapSize);
+            int child2 = heap[0];
+            nodeFrequencies[node] = nodeFrequencies[child1] + nodeFrequencies[child2];
+            children[2 * node] = child1;
+            children[2 * node + 1] = child2;
+            heap[0] = node; // replaces child2
+            siftDown(0, heapSize);
+        }
+    }
+
+    private boolean less(int n1, int n2) {
+        long f1 = nodeFrequencies[n1];
+        long f2 = nodeFrequencies[n2];
+        return f1 < f2 || (f1 == f2 && n1 < n2);
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(node, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = node;
+    }
+
+    private void siftDown(int i, int heapSize) {
+        int node = heap[i];
+        for (;;) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], node)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = node;
+    }
+
+    private void encodeTree(int node, int bits, long code) throws IOException {
+        boolean isNode = node >= size;
+        bos.encodeBit(isNode);
+        if (isNode) {
+            encodeTree(children[2 * node], bits + 1, (code << 1));
+            encodeTree(children[2 * node + 1], bits + 1, (code << 1) | 1L);
+        } else {
+            codeLengths[node] = bits;
+            codes[node] = code;
+            encodeValueToStream(values[node]);
+        }
+    }
+
+    /**
+     * Reset this encoder to the state before pass 1, clearing the statistics, so
+     * it can be re-used for another 2-pass encoding instead of creating a new
+     * instance. The internal tables are kept.
+     */
+    public void reset() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(frequencies, 0, size, 0L);
+        size = 0;
+        pass = 0;
+        bos = null;
+    }
+
+    /**
+     * Encode the values that this huffman encoder operates on into the underlying
+     * bit stream. This method is called while encoding the huffman tree.
+     *
+     * @param value the value to encode
+     */
+    protected abstract void encodeValueToStream(long value) throws IOException;
+
+    /**
+     * Get a summary on the statistics used to build the current huffman tree as a
+     * textual line, see {@link HuffmanEncoder#getStats()}.
+     *
+     * @return statistic summary as a textline
+     */
+    public String getStats() {
+        double entropy = 0.;
+        long bits = 0L;
+        long totFreq = 0L;
+        for (int i = 0; i < size; i++) {
+            long frequency = frequencies[i];
+            totFreq += frequency;
+            bits += frequency * codeLengths[i];
+            entropy += Math.log(frequency) * frequency;
+        }
+        entropy = (Math.log(totFreq) * totFreq - entropy) / Math.log(2);
+        return "symbols=" + totFreq + " distinct=" + size + " bits=" + bits + " entropy=" + entropy;
+    }
+}
@@ -1,7 +1,11 @@
 package btools.statcoding;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import junit.framework.TestCase;
 
@@ -70,6 +74,225 @@ public class BitStreamsTest extends TestCase {
 
     }
 
+    public void testBufferedOutput() throws IOException {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        long bitLength;
+        try (BitOutputStream bos = new BitOutputStream(baos)) {
+            bitLength = encodeMixed(bos);
+        }
+        byte[] ab = baos.toByteArray();
+
+        // array-backed mode
+        BitOutputStream abos = new BitOutputStream();
+        assertEquals(bitLength, encodeMixed(abos));
+        assertTrue(Arrays.equals(ab, abos.toByteArray()));
+
+        // buffered mode with chunks smaller and larger than the written byte arrays
+        for (int bufferSize : new int[] { 8, 13, 4096 }) {
+            ByteArrayOutputStream baos2 = new ByteArrayOutputStream();
+            try (BitOutputStream bos = new BitOutputStream(baos2, bufferSize)) {
+                assertEquals(bitLength, encodeMixed(bos));
+            }
+            assertTrue(Arrays.equals(ab, baos2.toByteArray()));
+        }
+    }
+
+    private long encodeMixed(BitOutputStream bos) throws IOException {
+        Random rand = new Random(4711L);
+        for (int i = 0; i < 10000; i++) {
+            int nBits = rand.nextInt(65);
+            bos.encodeBits(nBits, rand.nextLong());
+            bos.encodeBit(rand.nextBoolean());
+            bos.encodeSignedVarBits(rand.nextInt(), rand.nextInt(8));
+            if (i % 1000 == 0) {
+                bos.writeLong(i);
+                bos.write(new byte[i / 100]);
+                bos.encodeVarBytes(i);
+            }
+        }
+        return bos.getBitPosition();
+    }
+
+    public void testBufferedInput() throws IOException {
+
+        BitOutputStream bos = new BitOutputStream();
+        long bitLength = encodeMixed(bos);
+        bos.encodeBits(3, 5L); // trailing bits in the last 7 bytes
+        byte[] ab = bos.toByteArray();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(ab.length + 5);
+        direct.position(5);
+        direct.put(ab);
+        direct.position(5);
+
+        BitInputStream[] sources = new BitInputStream[] { new BitInputStream(new ByteArrayInputStream(ab)),
+                new BitInputStream(ab), new BitInputStream(direct) };
+        for (BitInputStream bis : sources) {
+            decodeMixed(bis);
+            assertEquals(5L, bis.decodeBits(3));
+            assertEquals(0L, bis.decodeBits((int) (-(bitLength + 3) & 7))); // padding
+            assertFalse(bis.hasMoreRealBits());
+        }
+        assertEquals(5, direct.position());
+    }
+
+    private void decodeMixed(BitInputStream bis) throws IOException {
+        Random rand = new Random(4711L);
+        for (int i = 0; i < 10000; i++) {
+            int nBits = rand.nextInt(65);
+            long mask = nBits == 0 ? 0L : -1L >>> (64 - nBits);
+            assertEquals(rand.nextLong() & mask, bis.decodeBits(nBits));
+            assertEquals(rand.nextBoolean(), bis.decodeBit());
+            assertEquals(rand.nextInt(), bis.decodeSignedVarBits(rand.nextInt(8)));
+            if (i % 1000 == 0) {
+                assertEquals(i, bis.readLong());
+                byte[] ab = new byte[i / 100];
+                bis.readFully(ab);
+                assertTrue(Arrays.equals(new byte[i / 100], ab));
+                assertEquals(i, bis.decodeVarBytes());
+            }
+        }
+    }
+
+    public void testBitPositionAndSeek() throws IOException {
+
+        Random rand = new Random(4711L);
+        int n = 10000;
+        long[] values = new long[n];
+        long[] positions = new long[n];
+        BitOutputStream bos = new BitOutputStream();
+        bos.writeUTF("header");
+        for (int i = 0; i < n; i++) {
+            values[i] = rand.nextInt(1000) - 500;
+            positions[i] = bos.getBitPosition();
+            bos.encodeSignedVarBits(values[i], 3);
+        }
+        byte[] ab = bos.toByteArray();
+
+        // positions match the encoder's positions for all kinds of sources
+        BitInputStream[] sources = new BitInputStream[] { new BitInputStream(new ByteArrayInputStream(ab)),
+                new BitInputStream(ab), new BitInputStream(ByteBuffer.wrap(ab, 0, ab.length)) };
+        for (BitInputStream bis : sources) {
+            assertEquals(0L, bis.getBitPosition());
+            assertEquals("header", bis.readUTF());
+            for (int i = 0; i < n; i++) {
+                assertEquals(positions[i], bis.getBitPosition());
+                assertEquals(values[i], bis.decodeSignedVarBits(3));
+            }
+        }
+
+        // random access
+        ByteBuffer bb = ByteBuffer.allocate(ab.length + 3);
+        bb.position(3);
+        bb.put(ab);
+        bb.position(3);
+        BitInputStream bis = new BitInputStream(bb);
+        for (int k = 0; k < 1000; k++) {
+            int i = rand.nextInt(n);
+            bis.seekToBit(positions[i]);
+            assertEquals(positions[i], bis.getBitPosition());
+            assertEquals(values[i], bis.decodeSignedVarBits(3));
+        }
+        bis.seekToBit(0L);
+        assertEquals("header", bis.readUTF());
+        bis.seekToBit(ab.length * 8L);
+        assertFalse(bis.hasMoreRealBits());
+
+        try {
+            sources[0].seekToBit(0L);
+            fail("should not be able to seek on an InputStream");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("seekable"));
+        }
+    }
+
+    public void testShortVarBits() throws IOException {
+
+        // exhaustively check the table driven decoding of short codes
+        BitOutputStream bos = new BitOutputStream();
+        for (int noisyBits = 0; noisyBits < 14; noisyBits++) {
+            for (int align = 0; align < 8; align++) {
+                bos.encodeBits(align, 0L);
+                for (long value = -1000; value < 1000; value++) {
+                    bos.encodeSignedVarBits(value, noisyBits);
+                    bos.encodeUnsignedVarBits(value + 1000L, noisyBits);
+                }
+            }
+        }
+        BitInputStream bis = new BitInputStream(bos.toByteArray());
+        for (int noisyBits = 0; noisyBits < 14; noisyBits++) {
+            for (int align = 0; align < 8; align++) {
+                assertEquals(0L, bis.decodeBits(align));
+                for (long value = -1000; value < 1000; value++) {
+                    assertEquals(value, bis.decodeSignedVarBits(noisyBits));
+                    assertEquals(value + 1000L, bis.decodeUnsignedVarBits(noisyBits));
+                }
+            }
+        }
+    }
+
+    public void testBulkVarBits() throws IOException {
+
+        Random rand = new Random(4711L);
+        int n = 10000;
+        long[] values = new long[n];
+        int[] intValues = new int[n];
+        for (int i = 0; i < n; i++) {
+            int shift = rand.nextInt(64);
+            values[i] = i < testLongs.length ? testLongs[i] : rand.nextLong() >> shift;
+            intValues[i] = (int) values[i];
+        }
+        values[n - 1] = Long.MIN_VALUE;
+        long[] unsignedValues = new long[n];
+        for (int i = 0; i < n; i++) {
+            unsignedValues[i] = values[i] & Long.MAX_VALUE;
+        }
+
+        for (int noisyBits : new int[] { 0, 1, 5, 20, 63 }) {
+
+            // bulk encoding must match single value decoding
+            BitOutputStream bos = new BitOutputStream();
+            bos.encodeUnsignedVarBits(unsignedValues, 0, n, noisyBits);
+            bos.encodeSignedVarBits(values, 0, n, noisyBits);
+            bos.encodeSignedVarBits(intValues, 1, n - 1, noisyBits);
+            bos.encodeSignedVarBitsDeltas(intValues, 0, n, noisyBits);
+            bos.encodeBit(true);
+            byte[] ab = bos.toByteArray();
+
+            BitInputStream bis = new BitInputStream(ab);
+            long lastValue = 0L;
+            for (int i = 0; i < n; i++) {
+                assertEquals(unsignedValues[i], bis.decodeUnsignedVarBits(noisyBits));
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(values[i], bis.decodeSignedVarBits(noisyBits));
+            }
+            for (int i = 1; i < n; i++) {
+                assertEquals(intValues[i], bis.decodeSignedVarBits(noisyBits));
+            }
+            for (int i = 0; i < n; i++) {
+                lastValue += bis.decodeSignedVarBits(noisyBits);
+                assertEquals(intValues[i], (int) lastValue);
+            }
+            assertTrue(bis.decodeBit());
+
+            // bulk decoding
+            bis = new BitInputStream(ab);
+            long[] decoded = new long[n + 1];
+            int[] intDecoded = new int[n];
+            bis.decodeUnsignedVarBits(noisyBits, decoded, 1, n);
+            assertTrue(Arrays.equals(unsignedValues, Arrays.copyOfRange(decoded, 1, n + 1)));
+            bis.decodeSignedVarBits(noisyBits, decoded, 0, n);
+            assertTrue(Arrays.equals(values, Arrays.copyOf(decoded, n)));
+            bis.decodeSignedVarBits(noisyBits, intDecoded, 1, n - 1);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(intValues, 1, n), Arrays.copyOfRange(intDecoded, 1, n)));
+            bis.decodeSignedVarBitsDeltas(noisyBits, intDecoded, 0, n);
+            assertTrue(Arrays.equals(intValues, intDecoded));
+            assertTrue(bis.decodeBit());
+        }
+    }
+
     public void testVarBytes() throws IOException {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -120,6 +343,53 @@ public class BitStreamsTest extends TestCase {
         }
     }
 
+    public void testCodecs() throws IOException {
+
+        Random rand = new Random(4711L);
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i < testLongs.length ? testLongs[i] : rand.nextLong() >> rand.nextInt(64);
+        }
+
+        // codecs must produce the same format as the stream methods
+        for (long max : new long[] { 0L, 1L, 9L, 1000L, Long.MAX_VALUE }) {
+            BoundedCodec codec = new BoundedCodec(max);
+            BitOutputStream bos1 = new BitOutputStream();
+            BitOutputStream bos2 = new BitOutputStream();
+            for (long value : values) {
+                long v = max == Long.MAX_VALUE ? value & max : (value & Long.MAX_VALUE) % (max + 1L);
+                bos1.encodeBounded(max, v);
+                codec.encode(bos2, v);
+            }
+            byte[] ab = bos1.toByteArray();
+            assertTrue(Arrays.equals(ab, bos2.toByteArray()));
+            BitInputStream bis = new BitInputStream(ab);
+            for (long value : values) {
+                long v = max == Long.MAX_VALUE ? value & max : (value & Long.MAX_VALUE) % (max + 1L);
+                assertEquals(v, codec.decode(bis));
+            }
+        }
+        for (int noisyBits : new int[] { 0, 3, 11, 12, 63 }) {
+            VarBitsCodec signedCodec = new VarBitsCodec(noisyBits, true);
+            VarBitsCodec unsignedCodec = new VarBitsCodec(noisyBits, false);
+            BitOutputStream bos1 = new BitOutputStream();
+            BitOutputStream bos2 = new BitOutputStream();
+            for (long value : values) {
+                bos1.encodeSignedVarBits(value, noisyBits);
+                bos1.encodeUnsignedVarBits(value & Long.MAX_VALUE, noisyBits);
+                signedCodec.encode(bos2, value);
+                unsignedCodec.encode(bos2, value & Long.MAX_VALUE);
+            }
+            byte[] ab = bos1.toByteArray();
+            assertTrue(Arrays.equals(ab, bos2.toByteArray()));
+            BitInputStream bis = new BitInputStream(ab);
+            for (long value : values) {
+                assertEquals(value, signedCodec.decode(bis));
+                assertEquals(value & Long.MAX_VALUE, unsignedCodec.decode(bis));
+            }
+        }
+    }
+
     public void testReAlignment() throws IOException {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -158,6 +428,91 @@ public class BitStreamsTest extends TestCase {
         }
     }
 
+    public void testStringDecoding() throws IOException {
+        String[] strings = { "DE", null, "", "4711", "12.5/3", "Pfizer Inc.", "du dödel du",
+                "€ 😀 é", "\ud800 lone surrogate", "DE", "Pfizer Inc.", "€ 😀 é" };
+        BitOutputStream bos = new BitOutputStream();
+        for (String s : strings) {
+            for (int k = 0; k < 4; k++) { // once per decode variant
+                bos.encodeString(s);
+            }
+        }
+        byte[] ab = bos.toByteArray();
+
+        BitInputStream bis = new BitInputStream(ab);
+        StringCache cache = new StringCache(16);
+        StringBuilder sb = new StringBuilder();
+        CharBuffer cb = CharBuffer.allocate(64);
+        for (String s : strings) {
+            String expected = s == null ? null : new String(s.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+            assertEquals(expected, bis.decodeString());
+            String cached = bis.decodeString(cache);
+            assertEquals(expected, cached);
+            if (cached != null) {
+                assertSame(cached, cache.get(cached.toCharArray(), cached.length()));
+            }
+            sb.setLength(0);
+            assertEquals(s != null, bis.decodeString(sb));
+            assertEquals(expected == null ? "" : expected, sb.toString());
+            cb.clear();
+            assertEquals(s != null, bis.decodeString(cb));
+            cb.flip();
+            assertEquals(expected == null ? "" : expected, cb.toString());
+        }
+    }
+
+    public void testStringEncoding() throws IOException {
+        Random rand = new Random(4711L);
+        String[] alphabets = { "0123456789", "0123456789,-./", "ABC xyz!~", "äöü€", "😀𐀀", "𐏿\ud801" };
+        BitOutputStream bos1 = new BitOutputStream();
+        BitOutputStream bos2 = new BitOutputStream();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = rand.nextInt(40);
+            int nAlphabets = 1 + rand.nextInt(3);
+            for (int j = 0; j < len; j++) {
+                String alphabet = alphabets[rand.nextInt(nAlphabets + i % 4)];
+                sb.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+            }
+            String s = sb.toString();
+            int nBits = rand.nextInt(13);
+            bos1.encodeBits(nBits, i);
+            bos1.encodeString(s);
+            bos2.encodeBits(nBits, i);
+            encodeStringReference(bos2, s);
+        }
+        byte[] ab = bos1.toByteArray();
+        assertTrue(Arrays.equals(bos2.toByteArray(), ab));
+    }
+
+    // the straight-forward implementation of encodeString
+    private static void encodeStringReference(BitOutputStream bos, String value) throws IOException {
+        if (value.isEmpty()) {
+            bos.encodeUnsignedVarBits(1L, 1);
+            return;
+        }
+        int[] low = { 0x30, 0x2c, 0x20 };
+        int[] high = { 0x3a, 0x3a, 0x80 };
+        int type = 0;
+        for (int j = 0; j < value.length(); j++) {
+            int c = value.charAt(j);
+            while (type < 3 && (c < low[type] || c >= high[type])) {
+                type++;
+            }
+        }
+        bos.encodeUnsignedVarBits(type + 2, 1);
+        if (type < 3) {
+            bos.encodeUnsignedVarBits(value.length() - 1, 3);
+            for (int j = 0; j < value.length(); j++) {
+                bos.encodeBounded(high[type] - low[type] - 1, value.charAt(j) - low[type]);
+            }
+            return;
+        }
+        byte[] ab = value.getBytes(StandardCharsets.UTF_8);
+        bos.encodeUnsignedVarBits(ab.length - 1, 3);
+        bos.write(ab);
+    }
+
     public void testRandomUniqueSortedArrayEncodeDecode() throws IOException {
         Random rand = new Random();
 
@@ -198,6 +553,294 @@ public class BitStreamsTest extends TestCase {
         }
     }
 
+    public void testUniqueSortedArrayRecursiveFormat() throws IOException {
+        Random rand = new Random(4711L);
+        for (int size = 1; size < 1000; size += 1 + size / 4) {
+            SortedSet<Long> valueSet = new TreeSet<>();
+            long range = size + rand.nextInt(5 * size);
+            while (valueSet.size() < size) {
+                valueSet.add((long) (rand.nextDouble() * range));
+            }
+            long[] values = new long[size];
+            int i = 0;
+            for (Long value : valueSet) {
+                values[i++] = value;
+            }
+            int nBits = 63 - Long.numberOfLeadingZeros(values[size - 1] | 1L);
+
+            // iterative implementation must match the recursive reference
+            BitOutputStream bos1 = new BitOutputStream();
+            bos1.encodeUniqueSortedArray(values, 0, size);
+            BitOutputStream bos2 = new BitOutputStream();
+            bos2.encodeUnsignedVarBits(nBits, 8);
+            bos2.encodeUniqueSortedArray(values, 0, size, nBits, 0L);
+            byte[] ab = bos1.toByteArray();
+            assertTrue(Arrays.equals(ab, bos2.toByteArray()));
+
+            BitInputStream bis = new BitInputStream(ab);
+            long[] decodedValues = new long[size];
+            assertEquals(nBits, bis.decodeUnsignedVarBits(8));
+            bis.decodeUniqueSortedArray(decodedValues, 0, size, nBits, 0L);
+            assertTrue(Arrays.equals(values, decodedValues));
+        }
+    }
+
+    public void testUniqueSortedArrayIterator() throws IOException {
+        Random rand = new Random(4711L);
+        for (int size = 0; size < 3000; size += 1 + size / 2) {
+            for (long range : new long[] { size + 1, 100L * size + 1, Long.MAX_VALUE }) {
+                SortedSet<Long> valueSet = new TreeSet<>();
+                while (valueSet.size() < size) {
+                    valueSet.add((long) (rand.nextDouble() * range));
+                }
+                long[] values = new long[size];
+                int i = 0;
+                for (Long value : valueSet) {
+                    values[i++] = value;
+                }
+                BitOutputStream bos = new BitOutputStream();
+                bos.encodeUniqueSortedArray(values);
+                bos.encodeVarBytes(4711L);
+                byte[] ab = bos.toByteArray();
+
+                BitInputStream bis = new BitInputStream(ab);
+                PrimitiveIterator.OfLong it = bis.decodeUniqueSortedArrayIterator();
+                for (long value : values) {
+                    assertTrue(it.hasNext());
+                    assertEquals(value, it.nextLong());
+                }
+                assertFalse(it.hasNext());
+                assertEquals(4711L, bis.decodeVarBytes());
+
+                // early termination
+                it = new BitInputStream(ab).decodeUniqueSortedArrayIterator();
+                for (int k = 0; k < size / 3; k++) {
+                    assertEquals(values[k], it.nextLong());
+                }
+
+                assertTrue(Arrays.equals(values, new BitInputStream(ab).decodeUniqueSortedArrayStream().toArray()));
+            }
+        }
+    }
+
+    public void testPartitionedUniqueSortedArray() throws IOException {
+        Random rand = new Random(4711L);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int size = 0; size < 30000; size += 1 + size / 2) {
+                for (long range : new long[] { size + 1, 100L * size + 1, Long.MAX_VALUE }) {
+                    SortedSet<Long> valueSet = new TreeSet<>();
+                    while (valueSet.size() < size) {
+                        valueSet.add((long) (rand.nextDouble() * range));
+                    }
+                    long[] values = new long[size];
+                    int i = 0;
+                    for (Long value : valueSet) {
+                        values[i++] = value;
+                    }
+                    for (int partitionBits : new int[] { 0, 1, 6, 24 }) {
+                        BitOutputStream bos = new BitOutputStream();
+                        bos.encodePartitionedUniqueSortedArray(values, partitionBits, pool);
+                        bos.encodeVarBytes(4711L);
+                        byte[] ab = bos.toByteArray();
+
+                        BitInputStream bis = new BitInputStream(ab);
+                        assertTrue(Arrays.equals(values, bis.decodePartitionedUniqueSortedArray(pool)));
+                        assertEquals(4711L, bis.decodeVarBytes());
+
+                        bis = new BitInputStream(new ByteArrayInputStream(ab));
+                        assertTrue(Arrays.equals(values, bis.decodePartitionedUniqueSortedArray(null)));
+                        assertEquals(4711L, bis.decodeVarBytes());
+                    }
+                }
+            }
+
+            // edge cases: the largest value without partitioning (shift=63)
+            long[] values = { 0L, 1L, 4711L, Long.MAX_VALUE - 1L, Long.MAX_VALUE };
+            for (int partitionBits : new int[] { 0, 1, 24 }) {
+                BitOutputStream bos = new BitOutputStream();
+                bos.encodePartitionedUniqueSortedArray(values, partitionBits, pool);
+                byte[] ab = bos.toByteArray();
+                assertTrue(Arrays.equals(values, new BitInputStream(ab).decodePartitionedUniqueSortedArray(pool)));
+            }
+            long[] small = { 1L, 2L, 3L }; // a partition per value (shift=0)
+            BitOutputStream bos = new BitOutputStream();
+            bos.encodePartitionedUniqueSortedArray(small, 24, pool);
+            assertTrue(Arrays.equals(small, new BitInputStream(bos.toByteArray()).decodePartitionedUniqueSortedArray(pool)));
+            for (int partitionBits : new int[] { -1, 25 }) {
+                try {
+                    new BitOutputStream().encodePartitionedUniqueSortedArray(small, partitionBits, pool);
+                    fail("IllegalArgumentException expected");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testUniqueSortedArrayLookup() throws IOException {
+        Random rand = new Random(4711L);
+        int[] blockSizes = { 1, 3, 64, 100000 };
+        for (int size = 0; size < 3000; size += 1 + size / 2) {
+            for (long range : new long[] { 2L * size + 1, 100L * size + 1, Long.MAX_VALUE }) {
+                SortedSet<Long> valueSet = new TreeSet<>();
+                while (valueSet.size() < size) {
+                    valueSet.add((long) (rand.nextDouble() * range));
+                }
+                long[] values = new long[size];
+                int i = 0;
+                for (Long value : valueSet) {
+                    values[i++] = value;
+                }
+                for (int blockSize : blockSizes) {
+                    BitOutputStream bos = new BitOutputStream();
+                    bos.encodeIndexedUniqueSortedArray(values, blockSize);
+                    bos.encodeVarBytes(4711L);
+                    BitInputStream bis = new BitInputStream(bos.toByteArray());
+                    UniqueSortedArrayLookup lookup = new UniqueSortedArrayLookup(bis);
+                    assertEquals(4711L, bis.decodeVarBytes());
+
+                    assertEquals(size, lookup.size());
+                    assertTrue(Arrays.equals(values, lookup.toArray()));
+                    for (int k = 0; k < 50; k++) {
+                        long v = k % 2 == 0 && size > 0 ? values[rand.nextInt(size)] : (long) (rand.nextDouble() * range);
+                        int idx = Arrays.binarySearch(values, v);
+                        assertEquals(idx >= 0, lookup.contains(v));
+                        assertEquals(idx >= 0 ? idx : -idx - 1, lookup.rank(v));
+                    }
+                    assertFalse(lookup.contains(-1L));
+                    assertEquals(0, lookup.rank(-1L));
+                    assertEquals(size, lookup.rank(Long.MAX_VALUE) + (lookup.contains(Long.MAX_VALUE) ? 1 : 0));
+                    for (int k = 0; k < size; k += 1 + k / 8) {
+                        assertEquals(values[k], lookup.select(k));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testStreamReset() throws IOException {
+
+        ThreadLocalPool<BitOutputStream> outPool = new ThreadLocalPool<>(BitOutputStream::new, 4);
+        ThreadLocalPool<BitInputStream> inPool = new ThreadLocalPool<>(() -> new BitInputStream((InputStream) null), 4);
+        BitOutputStream first = outPool.acquire();
+        outPool.release(first);
+
+        for (int record = 0; record < 20; record++) {
+            BitOutputStream bos = outPool.acquire();
+            assertSame(first, bos);
+            bos.reset(null);
+            for (int i = 0; i <= record; i++) {
+                bos.encodeUnsignedVarBits(record * 1000L + i, 3);
+            }
+            bos.encodeString("record" + record);
+            byte[] ab = bos.toByteArray();
+            outPool.release(bos);
+
+            // reset to a byte-array, and to the same data via an InputStream
+            BitInputStream bis = inPool.acquire();
+            for (int variant = 0; variant < 2; variant++) {
+                if (variant == 0) {
+                    bis.reset(ab);
+                } else {
+                    bis.reset(new ByteArrayInputStream(ab));
+                }
+                for (int i = 0; i <= record; i++) {
+                    assertEquals(record * 1000L + i, bis.decodeUnsignedVarBits(3));
+                }
+                assertEquals("record" + record, bis.decodeString());
+            }
+            inPool.release(bis);
+        }
+
+        // reset to a range of a larger array
+        byte[] ab = new byte[] { 7, 0x55, (byte) 0xaa, 7 };
+        BitInputStream bis = new BitInputStream(ab);
+        bis.reset(ab, 1, 2);
+        assertEquals(0x55aaL, bis.decodeBits(16));
+        assertEquals(0L, bis.decodeBits(8)); // beyond range
+        bis.reset(ab, 0, 4);
+        bis.seekToBit(8);
+        assertEquals(0x55aa07L, bis.decodeBits(24));
+
+        // writeTo and reset of a buffered stream
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        BitOutputStream bos = new BitOutputStream();
+        bos.encodeBits(12, 0xabcL);
+        bos.writeTo(baos);
+        assertTrue(Arrays.equals(new byte[] { (byte) 0xab, (byte) 0xc0 }, baos.toByteArray()));
+        baos.reset();
+        bos.reset(baos);
+        bos.encodeBits(8, 0x12L);
+        bos.close();
+        assertTrue(Arrays.equals(new byte[] { 0x12 }, baos.toByteArray()));
+    }
+
+    public void testProfilingBitOutputStream() throws IOException {
+
+        BitOutputStream plain = new BitOutputStream();
+        ProfilingBitOutputStream pbos = new ProfilingBitOutputStream();
+        for (BitOutputStream bos : new BitOutputStream[] { plain, pbos }) {
+            if (bos == pbos) {
+                pbos.enterScope("header");
+            }
+            bos.encodeBits(5, 17L);
+            bos.encodeString("hallo");
+            if (bos == pbos) {
+                pbos.exitScope();
+                pbos.enterScope("data");
+            }
+            for (int i = 0; i < 100; i++) {
+                bos.encodeUnsignedVarBits(i, 2);
+            }
+            bos.encodeUniqueSortedArray(new long[] { 1L, 5L, 17L, 99L });
+            if (bos == pbos) {
+                pbos.exitScope();
+            }
+            // DataOutput writes mixed with bits, outside of any scope
+            writeMixedWithBits(bos);
+            writeAllIntoDataOutput(bos);
+            bos.encodeBit(true);
+            bos.writeSyncBlock(4711L);
+        }
+        long bitPosition = pbos.getBitPosition();
+        assertTrue(Arrays.equals(plain.toByteArray(), pbos.toByteArray()));
+
+        ProfilingBitOutputStream.Stats header = pbos.getScopeStats().get("header");
+        ProfilingBitOutputStream.Stats data = pbos.getScopeStats().get("data");
+        assertEquals(1L, header.getCount());
+        assertTrue(bitPosition > header.getTotalBits() + data.getTotalBits());
+
+        Map<String, ProfilingBitOutputStream.Stats> methods = pbos.getMethodStats();
+        assertEquals(101L, methods.get("encodeBits").getCount()); // not counting internal calls
+        assertEquals(1L, methods.get("encodeString").getCount());
+        assertEquals(100L, methods.get("encodeUnsignedVarBits").getCount());
+        assertEquals(1L, methods.get("encodeUniqueSortedArray").getCount());
+        long methodBits = 0L;
+        for (ProfilingBitOutputStream.Stats s : methods.values()) {
+            methodBits += s.getTotalBits();
+        }
+        assertEquals(bitPosition, methodBits); // including the re-alignment padding
+        assertEquals(101L, methods.get("writeLong").getCount()); // not counting writeSyncBlock
+        assertEquals(1L, methods.get("writeSyncBlock").getCount());
+        assertEquals(7L + 8 * 8, methods.get("writeSyncBlock").getTotalBits()); // with padding
+        assertEquals(1L, methods.get("writeUTF").getCount());
+        assertEquals(8L * 24, methods.get("writeUTF").getTotalBits());
+        assertEquals(1L, methods.get("writeChars").getCount());
+        assertEquals(1L, methods.get("writeFloat").getCount());
+        assertEquals(4L, methods.get("encodeUnsignedVarBits").getHistogram()[2]); // 3 bits: values 0..3
+        assertTrue(pbos.getReport().contains("encodeString"));
+
+        try {
+            pbos.exitScope();
+            fail("exitScope without enterScope should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
     public void testDataInOutPut() throws IOException {
 
         // Test inter-operability DataOutputStream->BitInputStream
@@ -216,6 +859,70 @@ public class BitStreamsTest extends TestCase {
 
     }
 
+    public void testDataInOutPutMixedWithBits() throws IOException {
+
+        // all output modes yield the same bytes
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (BitOutputStream bos = new BitOutputStream(baos)) {
+            writeMixedWithBits(bos);
+        }
+        byte[] ab = baos.toByteArray();
+        BitOutputStream abos = new BitOutputStream();
+        writeMixedWithBits(abos);
+        assertTrue(Arrays.equals(ab, abos.toByteArray()));
+        baos.reset();
+        try (BitOutputStream bos = new BitOutputStream(baos, 8)) {
+            writeMixedWithBits(bos);
+        }
+        assertTrue(Arrays.equals(ab, baos.toByteArray()));
+
+        BitInputStream[] sources = new BitInputStream[] { new BitInputStream(new ByteArrayInputStream(ab)),
+                new BitInputStream(ab) };
+        for (BitInputStream bis : sources) {
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i & ((1 << (i & 7)) - 1), bis.decodeBits(i & 7));
+                assertEquals(i % 2 == 0, bis.readBoolean());
+                assertEquals((byte) i, bis.readByte());
+                assertEquals((short) (i * 1000), bis.readShort());
+                assertEquals(i * 100000, bis.readInt());
+                assertEquals(i * 10000000000L, bis.readLong());
+                assertEquals(i * 0.1, bis.readDouble());
+            }
+            assertEquals(4711L, bis.decodeVarBytes());
+            try {
+                bis.readInt();
+                fail("EOFException expected");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+
+        // an InputStream source is not read beyond the value
+        ByteArrayInputStream bais = new ByteArrayInputStream(ab);
+        BitInputStream bis = new BitInputStream(bais);
+        assertEquals(0L, bis.decodeBits(0));
+        assertTrue(bis.readBoolean());
+        assertEquals(ab.length - 1, bais.available());
+        assertEquals(0, bis.readByte());
+        assertEquals(0, bis.readShort());
+        assertEquals(0, bis.readInt());
+        assertEquals(0L, bis.readLong());
+        assertEquals(ab.length - 16, bais.available());
+    }
+
+    private void writeMixedWithBits(BitOutputStream bos) throws IOException {
+        for (int i = 0; i < 100; i++) {
+            bos.encodeBits(i & 7, i);
+            bos.writeBoolean(i % 2 == 0);
+            bos.writeByte(i);
+            bos.writeShort(i * 1000);
+            bos.writeInt(i * 100000);
+            bos.writeLong(i * 10000000000L);
+            bos.writeDouble(i * 0.1);
+        }
+        bos.encodeVarBytes(4711L);
+    }
+
     private void writeAllIntoDataOutput(DataOutput dos) throws IOException {
 
         byte[] ab = new byte[] { 1, 2, 3, 4 };
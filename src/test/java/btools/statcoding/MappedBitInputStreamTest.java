@@ -0,0 +1,73 @@
+package btools.statcoding;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import junit.framework.TestCase;
+
+public class MappedBitInputStreamTest extends TestCase {
+
+    public void testMappedBitInputStream() throws IOException {
+
+        File file = File.createTempFile("statcoding", ".dat");
+        file.deleteOnExit();
+
+        // write 100 blocks and remember their positions
+        long[] positions = new long[101];
+        try (BitOutputStream bos = new BitOutputStream(new FileOutputStream(file), 1024)) {
+            for (int i = 0; i < 100; i++) {
+                positions[i] = bos.getBitPosition() >> 3;
+                for (int j = 0; j <= i; j++) {
+                    bos.encodeSignedVarBits(i * j - 50L, 2);
+                }
+                bos.encodeString("block " + i);
+                bos.writeSyncBlock(0L);
+            }
+            positions[100] = bos.getBitPosition() >> 3;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+
+            // small segments to test segment crossing
+            for (int segmentSize : new int[] { 7, 64, 1 << 30 }) {
+                MappedFile mappedFile = new MappedFile(channel, segmentSize);
+                assertEquals(positions[100], mappedFile.size());
+
+                // sequential access
+                try (BitInputStream bis = new MappedBitInputStream(mappedFile)) {
+                    for (int i = 0; i < 100; i++) {
+                        checkBlock(bis, i);
+                    }
+                    assertEquals(-1, bis.read());
+
+                    // seek across segments
+                    for (int i = 0; i < 100; i += 33) {
+                        bis.seekToBit(positions[i] << 3);
+                        checkBlock(bis, i);
+                        assertEquals(positions[i + 1] << 3, bis.getBitPosition());
+                    }
+                }
+
+                // random access via views onto the shared mapping
+                for (int i = 99; i >= 0; i -= 7) {
+                    BitInputStream bis = new MappedBitInputStream(mappedFile, positions[i],
+                            positions[i + 1] - positions[i]);
+                    checkBlock(bis, i);
+                    assertEquals(0, bis.available());
+                    assertEquals(-1, bis.read());
+                }
+            }
+        }
+    }
+
+    private void checkBlock(BitInputStream bis, int i) throws IOException {
+        for (int j = 0; j <= i; j++) {
+            assertEquals(i * j - 50L, bis.decodeSignedVarBits(2));
+        }
+        assertEquals("block " + i, bis.decodeString());
+        assertEquals(0L, bis.readSyncBlock());
+    }
+}
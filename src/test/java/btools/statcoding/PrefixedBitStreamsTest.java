@@ -3,6 +3,8 @@ package btools.statcoding;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
@@ -37,4 +39,189 @@ public class PrefixedBitStreamsTest extends TestCase {
         }
     }
 
+    public void testPrefixedBitStreamsReset() throws IOException {
+
+        BitOutputStream bos = new BitOutputStream();
+        PrefixedBitOutputStream pbos = null;
+        for (int i = 1; i <= 3; i++) {
+            if (pbos == null) {
+                pbos = new PrefixedBitOutputStream(bos, i, 1L);
+            } else {
+                pbos.reset(bos, i, 1L);
+            }
+            for (int j = 0; j < i * 100; j++) {
+                pbos.encodeUnsignedVarBits(j, 2);
+            }
+            pbos.close();
+            bos.encodeBit(true);
+        }
+
+        BitInputStream bis = new BitInputStream(bos.toByteArray());
+        PrefixedBitInputStream pbis = null;
+        for (int i = 1; i <= 3; i++) {
+            if (pbis == null) {
+                pbis = new PrefixedBitInputStream(bis, 3L);
+            } else {
+                pbis.reset(bis, 3L);
+            }
+            assertEquals(i, pbis.getMajorVersion());
+            for (int j = 0; j < i * 100; j++) {
+                assertEquals(j, pbis.decodeUnsignedVarBits(2));
+            }
+            assertEquals(true, bis.decodeBit());
+        }
+    }
+
+    public void testPrefixedBitStreamsInPlace() throws IOException {
+
+        // in place into an array-backed target must give the same bytes as via copy
+        for (int n = 0; n < 2000; n += 1 + n / 3) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (BitOutputStream bos = new BitOutputStream(baos)) {
+                encodeNestedSections(bos, n);
+            }
+            BitOutputStream bos = new BitOutputStream();
+            encodeNestedSections(bos, n);
+            byte[] ab = bos.toByteArray();
+            assertTrue(Arrays.equals(baos.toByteArray(), ab));
+
+            BitInputStream bis = new BitInputStream(ab);
+            assertEquals(5L, bis.decodeBits(3));
+            try (PrefixedBitInputStream outer = new PrefixedBitInputStream(bis, 2L)) {
+                assertEquals(1L, outer.decodeBits(1));
+                try (PrefixedBitInputStream inner = new PrefixedBitInputStream(outer, 7L)) {
+                    assertEquals(7L, inner.getMajorVersion());
+                    for (int i = 0; i < n; i++) {
+                        assertEquals(i * 31L, inner.decodeUnsignedVarBits(3));
+                    }
+                }
+                assertEquals(n, outer.decodeUnsignedVarBits(0));
+            }
+            assertEquals(2L, bis.decodeBits(2));
+        }
+    }
+
+    public void testPrefixedBitOutputStreamNoArrayAccessInPlace() throws IOException {
+
+        BitOutputStream bos = new BitOutputStream();
+        bos.encodeBits(3, 5L);
+        PrefixedBitOutputStream pbos = new PrefixedBitOutputStream(bos, 1L, 1L);
+        pbos.encodeUnsignedVarBits(4711L, 0);
+        try {
+            pbos.toByteArray();
+            fail("toByteArray should fail while writing in place");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            pbos.writeTo(new ByteArrayOutputStream());
+            fail("writeTo should fail while writing in place");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        pbos.close();
+
+        // the encoding is not affected
+        BitInputStream bis = new BitInputStream(bos.toByteArray());
+        assertEquals(5L, bis.decodeBits(3));
+        try (PrefixedBitInputStream pbis = new PrefixedBitInputStream(bis, 1L)) {
+            assertEquals(4711L, pbis.decodeUnsignedVarBits(0));
+        }
+    }
+
+    private void encodeNestedSections(BitOutputStream bos, int n) throws IOException {
+        bos.encodeBits(3, 5L);
+        try (PrefixedBitOutputStream outer = new PrefixedBitOutputStream(bos, 2L, 1L)) {
+            outer.encodeBit(true);
+            try (PrefixedBitOutputStream inner = new PrefixedBitOutputStream(outer, 7L, 100000L)) {
+                for (int i = 0; i < n; i++) {
+                    inner.encodeUnsignedVarBits(i * 31L, 3);
+                }
+            }
+            outer.encodeUnsignedVarBits(n, 0);
+        }
+        bos.encodeBits(2, 2L);
+    }
+
+    public void testPrefixedBitInputStreamView() throws IOException {
+
+        BitOutputStream bos = new BitOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            try (PrefixedBitOutputStream pbos = new PrefixedBitOutputStream(bos, 1L, i)) {
+                for (int j = 0; j < 100 * i; j++) {
+                    pbos.encodeUnsignedVarBits(j, 0);
+                }
+            }
+        }
+        bos.encodeBits(8, 0xa5L);
+        byte[] ab = bos.toByteArray();
+
+        // sections read from a ByteBuffer are bounded views, the source is
+        // positioned behind the section right away
+        BitInputStream bis = new BitInputStream(ByteBuffer.wrap(ab));
+        PrefixedBitInputStream s1 = new PrefixedBitInputStream(bis, 1L);
+        PrefixedBitInputStream s2 = new PrefixedBitInputStream(bis, 1L);
+        PrefixedBitInputStream s3 = new PrefixedBitInputStream(bis, 1L);
+        assertEquals(0xa5L, bis.decodeBits(8));
+
+        assertEquals(0L, s3.decodeUnsignedVarBits(0)); // read just a part of that
+        for (int j = 0; j < 200; j++) {
+            assertEquals(j, s2.decodeUnsignedVarBits(0));
+        }
+        assertEquals(0L, s2.decodeBits(8)); // reading beyond the section gives dummy bits
+        assertFalse(s2.hasMoreRealBits());
+        for (int j = 0; j < 100; j++) {
+            assertEquals(j, s1.decodeUnsignedVarBits(0));
+        }
+        assertEquals(1L, s1.getMinorVersion());
+        assertEquals(3L, s3.getMinorVersion());
+    }
+
+    public void testSkipSection() throws IOException {
+
+        BitOutputStream bos = new BitOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            bos.encodeBits(3, i);
+            try (PrefixedBitOutputStream pbos = new PrefixedBitOutputStream(bos, i, 2 * i)) {
+                for (int j = 0; j < 1000 * i; j++) {
+                    pbos.encodeUnsignedVarBits(j, 0);
+                }
+            }
+        }
+        bos.encodeBits(8, 0xa5L);
+        byte[] ab = bos.toByteArray();
+
+        for (int variant = 0; variant < 2; variant++) {
+            BitInputStream bis = variant == 0 ? new BitInputStream(ab)
+                    : new BitInputStream(new ByteArrayInputStream(ab));
+            for (int i = 1; i <= 3; i++) {
+                assertEquals(i, bis.decodeBits(3));
+                if (variant == 0) {
+                    long bitPosition = bis.getBitPosition();
+                    SectionHeader header = bis.peekSectionHeader();
+                    assertEquals(i, header.getMajorVersion());
+                    assertEquals(2 * i, header.getMinorVersion());
+                    assertEquals(bitPosition, bis.getBitPosition());
+                }
+                if (i == 2) {
+                    try (PrefixedBitInputStream pbis = new PrefixedBitInputStream(bis, 3L)) {
+                        assertEquals(0L, pbis.decodeUnsignedVarBits(0));
+                    }
+                } else {
+                    SectionHeader header = bis.skipSection();
+                    assertEquals(i, header.getMajorVersion());
+                    assertTrue(header.getSize() > 1000 * i);
+                }
+            }
+            assertEquals(0xa5L, bis.decodeBits(8));
+        }
+
+        try {
+            new BitInputStream(new ByteArrayInputStream(ab)).peekSectionHeader();
+            fail("peekSectionHeader on a non-seekable source should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
 }
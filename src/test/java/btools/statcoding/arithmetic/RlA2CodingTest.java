@@ -1,6 +1,7 @@
 package btools.statcoding.arithmetic;
 
 import java.io.*;
+import java.util.Random;
 
 import btools.statcoding.BitInputStream;
 import btools.statcoding.BitOutputStream;
@@ -53,4 +54,48 @@ public class RlA2CodingTest extends TestCase {
             }
         }
     }
+
+    public void testRlA2CodingReusedCoders() throws IOException {
+
+        // several records with one encoder and one decoder, reset in between,
+        // with a varying number of distinct symbols per record so the
+        // re-used tables grow and shrink
+        long maxValue = 300L;
+        Random rnd = new Random(4711);
+        long[][] records = new long[6][];
+        for (int r = 0; r < records.length; r++) {
+            int range = r == 0 ? 1 : (r % 2 == 0 ? 5 : (int) maxValue + 1);
+            records[r] = new long[r == 3 ? 0 : 1000];
+            for (int i = 0; i < records[r].length; i++) {
+                records[r][i] = rnd.nextInt(4) == 0 ? records[r][Math.max(i - 1, 0)] : rnd.nextInt(range);
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (BitOutputStream bos = new BitOutputStream(baos)) {
+            RlA2Encoder enc = new RlA2Encoder(maxValue, 3);
+            for (long[] record : records) {
+                enc.reset();
+                for (int pass = 1; pass <= 2; pass++) { // 2-pass encoding!
+                    enc.init(bos);
+                    for (long v : record) {
+                        enc.encodeValue(v);
+                    }
+                    enc.finish();
+                }
+            }
+        }
+
+        ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
+        try (BitInputStream bis = new BitInputStream(bais)) {
+            RlA2Decoder dec = new RlA2Decoder();
+            for (int r = 0; r < records.length; r++) {
+                dec.reset();
+                dec.init(bis);
+                for (int i = 0; i < records[r].length; i++) {
+                    assertEquals("at record=" + r + " i=" + i, records[r][i], dec.decodeValue());
+                }
+            }
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package btools.statcoding.huffman;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
 
 import btools.statcoding.BitInputStream;
 import btools.statcoding.BitOutputStream;
@@ -15,19 +17,21 @@ public class HuffmanCodingTest extends TestCase {
 
         // explicitly test also the "no symbol" case (nsymbols=0) and "only 1 Symbol"
         for (int nsymbols = 0; nsymbols < testLongs.length; nsymbols++) {
-            testHuffmanCoding(nsymbols, 0 );
-            testHuffmanCoding(nsymbols, 8 );
-            testHuffmanCoding(nsymbols, 20 );
+            for (boolean canonical : new boolean[] { false, true }) {
+                testHuffmanCoding(nsymbols, 0, canonical );
+                testHuffmanCoding(nsymbols, 8, canonical );
+                testHuffmanCoding(nsymbols, 20, canonical );
+            }
         }
     }
 
-    private void testHuffmanCoding(int nsymbols, int lookupBits ) throws IOException {
+    private void testHuffmanCoding(int nsymbols, int lookupBits, boolean canonical ) throws IOException {
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
         try (BitOutputStream bos = new BitOutputStream(baos)) {
 
-            HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>() {
+            HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>(canonical) {
                 @Override
                 protected void encodeObjectToStream(Long lv) throws IOException {
                     bos.encodeUnsignedVarBits(lv, 0);
@@ -50,7 +54,7 @@ public class HuffmanCodingTest extends TestCase {
         ByteArrayInputStream bais = new ByteArrayInputStream(baos.toByteArray());
         try (BitInputStream bis = new BitInputStream(bais)) {
 
-            HuffmanDecoder<Long> dec = new HuffmanDecoder<Long>() {
+            HuffmanDecoder<Long> dec = new HuffmanDecoder<Long>(canonical) {
                 @Override
                 protected Long decodeObjectFromStream() throws IOException {
                     return bis.decodeUnsignedVarBits(0);
@@ -63,4 +67,418 @@ public class HuffmanCodingTest extends TestCase {
             }
         }
     }
+
+    public void testHuffmanCodingManySymbols() throws IOException {
+
+        Random rand = new Random(4711L);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextInt(1 + rand.nextInt(1000));
+        }
+        for (int lookupBits : new int[] { 0, 1, 8 }) {
+            BitOutputStream bos = new BitOutputStream();
+            HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>() {
+                @Override
+                protected void encodeObjectToStream(Long lv) throws IOException {
+                    bos.encodeUnsignedVarBits(lv, 0);
+                }
+            };
+            for (int pass = 1; pass <= 2; pass++) {
+                enc.init(bos);
+                for (long value : values) {
+                    enc.encodeObject(value);
+                }
+            }
+            BitInputStream bis = new BitInputStream(bos.toByteArray());
+            HuffmanDecoder<Long> dec = new HuffmanDecoder<Long>() {
+                @Override
+                protected Long decodeObjectFromStream() throws IOException {
+                    return bis.decodeUnsignedVarBits(0);
+                }
+            };
+            dec.init(bis, lookupBits);
+            for (long value : values) {
+                assertEquals(value, dec.decodeObject().longValue());
+            }
+        }
+    }
+
+    public void testCanonicalHuffmanCoding() throws IOException {
+
+        Random rand = new Random(4711L);
+        for (boolean deep : new boolean[] { false, true }) {
+            long[] values;
+            if (deep) { // fibonacci frequencies give codes longer than the lookup table
+                long[] fib = new long[30];
+                fib[0] = fib[1] = 1L;
+                for (int i = 2; i < fib.length; i++) {
+                    fib[i] = fib[i - 1] + fib[i - 2];
+                }
+                values = new long[100000];
+                for (int i = 0; i < values.length; i++) {
+                    long r = (long) (rand.nextDouble() * fib[fib.length - 1]);
+                    int k = 0;
+                    while (fib[k] <= r) {
+                        k++;
+                    }
+                    values[i] = k;
+                }
+            } else {
+                values = new long[10000];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = rand.nextInt(1 + rand.nextInt(3000));
+                }
+            }
+            long[] headerBits = new long[2];
+            long[] dataBits = new long[2];
+            for (int mode = 0; mode < 2; mode++) {
+                boolean canonical = mode == 1;
+                BitOutputStream bos = new BitOutputStream();
+                HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>(canonical) {
+                    @Override
+                    protected void encodeObjectToStream(Long lv) throws IOException {
+                        bos.encodeUnsignedVarBits(lv, 0);
+                    }
+                };
+                enc.init(null);
+                for (long value : values) {
+                    enc.encodeObject(value);
+                }
+                enc.init(bos);
+                headerBits[mode] = bos.getBitPosition();
+                for (long value : values) {
+                    enc.encodeObject(value);
+                }
+                dataBits[mode] = bos.getBitPosition() - headerBits[mode];
+                byte[] ab = bos.toByteArray();
+
+                for (int lookupBits : new int[] { 0, 1, 8, 12 }) {
+                    BitInputStream bis = new BitInputStream(ab);
+                    HuffmanDecoder<Long> dec = new HuffmanDecoder<Long>(canonical) {
+                        @Override
+                        protected Long decodeObjectFromStream() throws IOException {
+                            return bis.decodeUnsignedVarBits(0);
+                        }
+                    };
+                    dec.init(bis, lookupBits);
+                    for (long value : values) {
+                        assertEquals(value, dec.decodeObject().longValue());
+                    }
+                }
+            }
+            assertEquals(dataBits[0], dataBits[1]); // same code lengths
+            assertTrue(headerBits[1] < headerBits[0]);
+        }
+    }
+
+    public void testLengthLimitedHuffmanCoding() throws IOException {
+
+        // fibonacci frequencies give a huffman tree of depth 29
+        Random rand = new Random(4711L);
+        long[] fib = new long[30];
+        fib[0] = fib[1] = 1L;
+        for (int i = 2; i < fib.length; i++) {
+            fib[i] = fib[i - 1] + fib[i - 2];
+        }
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            long r = (long) (rand.nextDouble() * fib[fib.length - 1]);
+            int k = 0;
+            while (fib[k] <= r) {
+                k++;
+            }
+            values[i] = k + 1000L * rand.nextInt(20); // up to 600 distinct symbols
+        }
+
+        long unlimitedBits = 0L;
+        for (int maxCodeLength : new int[] { 64, 16, 12, 10 }) {
+            for (boolean canonical : new boolean[] { false, true }) {
+                BitOutputStream bos = new BitOutputStream();
+                HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>(canonical, maxCodeLength) {
+                    @Override
+                    protected void encodeObjectToStream(Long lv) throws IOException {
+                        bos.encodeUnsignedVarBits(lv, 0);
+                    }
+                };
+                enc.init(null);
+                for (long value : values) {
+                    enc.encodeObject(value);
+                }
+                enc.init(bos);
+                long bits0 = bos.getBitPosition();
+                for (long value : values) {
+                    long bits = bos.getBitPosition();
+                    enc.encodeObject(value);
+                    assertTrue(bos.getBitPosition() - bits <= maxCodeLength);
+                }
+                long dataBits = bos.getBitPosition() - bits0;
+                if (maxCodeLength == 64) {
+                    unlimitedBits = dataBits;
+                } else {
+                    assertTrue(dataBits >= unlimitedBits);
+                    assertTrue(dataBits < unlimitedBits * (maxCodeLength >= 12 ? 1.01 : 1.05));
+                }
+                byte[] ab = bos.toByteArray();
+
+                for (int lookupBits : new int[] { 0, Math.min(maxCodeLength, 20) }) {
+                    BitInputStream bis = new BitInputStream(ab);
+                    HuffmanDecoder<Long> dec = new HuffmanDecoder<Long>(canonical) {
+                        @Override
+                        protected Long decodeObjectFromStream() throws IOException {
+                            return bis.decodeUnsignedVarBits(0);
+                        }
+                    };
+                    dec.init(bis, lookupBits);
+                    for (long value : values) {
+                        assertEquals(value, dec.decodeObject().longValue());
+                    }
+                }
+            }
+        }
+
+        // 3 symbols do not fit into 1 bit
+        HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>(false, 1) {
+            @Override
+            protected void encodeObjectToStream(Long lv) throws IOException {
+            }
+        };
+        enc.init(null);
+        for (long value = 0L; value < 3L; value++) {
+            enc.encodeObject(value);
+        }
+        BitOutputStream bos = new BitOutputStream();
+        try {
+            enc.init(bos);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0L, bos.getBitPosition()); // nothing written
+        }
+    }
+
+    public void testHuffmanCodingReset() throws IOException {
+
+        BitOutputStream bos = new BitOutputStream();
+        HuffmanEncoder<Long> enc = new HuffmanEncoder<Long>() {
+            @Override
+            protected void encodeObjectToStream(Long lv) throws IOException {
+                bos.encodeUnsignedVarBits(lv, 0);
+            }
+        };
+        for (int nsymbols = 1; nsymbols < testLongs.length; nsymbols++) {
+            enc.reset();
+            for (int pass = 1; pass <= 2; pass++) {
+                enc.init(bos);
+                for (int i = 0; i < nsymbols; i++) {
+                    enc.encodeObject(testLongs[i] + nsymbols);
+                }
+            }
+        }
+
+        BitInputStream bis = new BitInputStream(bos.toByteArray());
+        HuffmanDecoder<Long> dec = new HuffmanDecoder<Long>() {
+            @Override
+            protected Long decodeObjectFromStream() throws IOException {
+                return bis.decodeUnsignedVarBits(0);
+            }
+        };
+        for (int nsymbols = 1; nsymbols < testLongs.length; nsymbols++) {
+            dec.reset();
+            dec.init(bis, 4);
+            for (int i = 0; i < nsymbols; i++) {
+                assertEquals(testLongs[i] + nsymbols, dec.decodeObject().longValue());
+            }
+        }
+
+        // a re-used encoder gives the same bytes as a fresh one, independent of
+        // the symbols seen before the reset
+        for (boolean canonical : new boolean[] { false, true }) {
+            HuffmanEncoder<Long> reused = createLongEncoder(canonical);
+            encodeRecord(reused, new long[] { 1L, 2L, 3L, 7L, 7L });
+            for (long[] record : new long[][] { { 3L, 2L, 1L }, { 5L, 5L, 4L, 3L, 2L }, { 8L } }) {
+                reused.reset();
+                byte[] expected = encodeRecord(createLongEncoder(canonical), record);
+                assertTrue(Arrays.equals(expected, encodeRecord(reused, record)));
+            }
+        }
+    }
+
+    private static HuffmanEncoder<Long> createLongEncoder(boolean canonical) {
+        return new HuffmanEncoder<Long>(canonical) {
+            @Override
+            protected void encodeObjectToStream(Long lv) throws IOException {
+                bos.encodeUnsignedVarBits(lv, 0);
+            }
+        };
+    }
+
+    private static byte[] encodeRecord(HuffmanEncoder<Long> enc, long[] values) throws IOException {
+        BitOutputStream bos = new BitOutputStream();
+        for (int pass = 1; pass <= 2; pass++) {
+            enc.init(bos);
+            for (long v : values) {
+                enc.encodeObject(v);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    public void testLongHuffmanEncoder() throws IOException {
+
+        Random rand = new Random(4711L);
+        for (int n : new int[] { 0, 1, 2, 10, 1000, 20000 }) {
+            long[] values = new long[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = rand.nextInt(1 + rand.nextInt(2000)) - 100L;
+            }
+
+            BitOutputStream bos1 = new BitOutputStream();
+            HuffmanEncoder<Long> enc1 = new HuffmanEncoder<Long>() {
+                @Override
+                protected void encodeObjectToStream(Long lv) throws IOException {
+                    bos1.encodeSignedVarBits(lv, 0);
+                }
+            };
+            BitOutputStream bos2 = new BitOutputStream();
+            LongHuffmanEncoder enc2 = new LongHuffmanEncoder() {
+                @Override
+                protected void encodeValueToStream(long value) throws IOException {
+                    bos2.encodeSignedVarBits(value, 0);
+                }
+            };
+            for (int pass = 1; pass <= 2; pass++) {
+                enc1.init(bos1);
+                enc2.init(bos2);
+                for (int i = 0; i < n; i++) {
+                    enc1.encodeObject(values[i]);
+                }
+                enc2.encodeValues(values, 0, n / 2);
+                for (int i = n / 2; i < n; i++) {
+                    enc2.encodeValue(values[i]);
+                }
+            }
+            assertTrue(Arrays.equals(bos1.toByteArray(), bos2.toByteArray()));
+            if (n > 0) {
+                String stats = enc1.getStats(); // entropy may differ in rounding
+                assertTrue(enc2.getStats().startsWith(stats.substring(0, stats.indexOf("entropy"))));
+            }
+        }
+    }
+
+    public void testLongHuffmanDecoder() throws IOException {
+
+        Random rand = new Random(4711L);
+        for (int n : new int[] { 0, 1, 2, 10, 1000, 20000, -1 }) {
+            long[] values;
+            if (n < 0) { // fibonacci frequencies give a tree deeper than the lookup tables
+                long[] fib = new long[26];
+                fib[0] = fib[1] = 1L;
+                int total = 2;
+                for (int i = 2; i < fib.length; i++) {
+                    fib[i] = fib[i - 1] + fib[i - 2];
+                    total += fib[i];
+                }
+                values = new long[total];
+                int k = 0;
+                for (int i = 0; i < fib.length; i++) {
+                    for (long j = 0; j < fib[i]; j++) {
+                        values[k++] = i * 1000000007L;
+                    }
+                }
+                for (int i = total - 1; i > 0; i--) {
+                    int j = rand.nextInt(i + 1);
+                    long v = values[i];
+                    values[i] = values[j];
+                    values[j] = v;
+                }
+            } else {
+                values = new long[n];
+                for (int i = 0; i < n; i++) {
+                    values[i] = rand.nextInt(1 + rand.nextInt(2000)) - 100L;
+                }
+            }
+            BitOutputStream bos = new BitOutputStream();
+            LongHuffmanEncoder enc = new LongHuffmanEncoder() {
+                @Override
+                protected void encodeValueToStream(long value) throws IOException {
+                    bos.encodeSignedVarBits(value, 0);
+                }
+            };
+            for (int pass = 1; pass <= 2; pass++) {
+                enc.init(bos);
+                enc.encodeValues(values, 0, values.length);
+            }
+            byte[] ab = bos.toByteArray();
+
+            for (int lookupBits : new int[] { 0, 1, 8, 20 }) {
+                BitInputStream bis = new BitInputStream(ab);
+                LongHuffmanDecoder dec = new LongHuffmanDecoder() {
+                    @Override
+                    protected long decodeValueFromStream() throws IOException {
+                        return bis.decodeSignedVarBits(0);
+                    }
+                };
+                dec.init(bis, lookupBits);
+                int half = values.length / 2;
+                for (int i = 0; i < half; i++) {
+                    assertEquals(values[i], dec.decodeValue());
+                }
+                long[] decoded = new long[values.length];
+                dec.decodeValues(decoded, half, values.length - half);
+                for (int i = half; i < values.length; i++) {
+                    assertEquals(values[i], decoded[i]);
+                }
+            }
+        }
+    }
+
+    public void testLongHuffmanBulkDecoding() throws IOException {
+
+        Random rand = new Random(4711L);
+        for (int distinct : new int[] { 1, 2, 10, 3000 }) {
+            long[] values = new long[10001];
+            for (int i = 0; i < values.length; i++) {
+                // geometric-like, mostly short codes, with a long tail
+                values[i] = Math.min(distinct - 1, (long) (-3. * Math.log(1. - rand.nextDouble())) * 7L);
+            }
+            BitOutputStream bos = new BitOutputStream();
+            LongHuffmanEncoder enc = new LongHuffmanEncoder() {
+                @Override
+                protected void encodeValueToStream(long value) throws IOException {
+                    bos.encodeUnsignedVarBits(value, 0);
+                }
+            };
+            for (int pass = 1; pass <= 2; pass++) {
+                enc.init(bos);
+                enc.encodeValues(values, 0, values.length);
+            }
+            byte[] ab = bos.toByteArray();
+
+            for (int lookupBits : new int[] { 0, 4, 12 }) {
+                BitInputStream bis = new BitInputStream(ab);
+                LongHuffmanDecoder dec = new LongHuffmanDecoder() {
+                    @Override
+                    protected long decodeValueFromStream() throws IOException {
+                        return bis.decodeUnsignedVarBits(0);
+                    }
+                };
+                dec.init(bis, lookupBits);
+                long[] decoded = new long[values.length + 2];
+                decoded[0] = decoded[values.length + 1] = -1L;
+                int i = 0;
+                while (i < values.length) { // mix bulk and single decoding
+                    int n = Math.min(rand.nextInt(20), values.length - i);
+                    dec.decodeValues(decoded, i + 1, n);
+                    i += n;
+                    if (i < values.length) {
+                        decoded[1 + i++] = dec.decodeValue();
+                    }
+                }
+                for (int k = 0; k < values.length; k++) {
+                    assertEquals(values[k], decoded[k + 1]);
+                }
+                assertEquals(-1L, decoded[0]);
+                assertEquals(-1L, decoded[values.length + 1]);
+            }
+        }
+    }
 }